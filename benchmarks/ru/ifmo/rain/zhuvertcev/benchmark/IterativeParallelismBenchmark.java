@@ -0,0 +1,120 @@
+package ru.ifmo.rain.zhuvertcev.benchmark;
+
+import info.kgeorgiy.java.advanced.concurrent.AdvancedIP;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.ifmo.rain.zhuvertcev.concurrent.IterativeParallelism;
+import ru.ifmo.rain.zhuvertcev.mapper.ParallelMapperImpl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmarks of {@link IterativeParallelism} operations over different input sizes,
+ * thread counts, costs of functions and backends
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IterativeParallelismBenchmark {
+    /**
+     * Number of {@link Blackhole#consumeCPU(long)} tokens spent on one element by expensive functions
+     */
+    private static final long EXPENSIVE_TOKENS = 100;
+
+    @Param({"100", "10000", "1000000", "10000000"})
+    private int size;
+
+    @Param({"1", "4", "16"})
+    private int threads;
+
+    @Param({"cheap", "expensive"})
+    private String cost;
+
+    /**
+     * <var>threads</var> runs slices on own pool of threads, <var>mapper</var> and <var>stealing</var>
+     * on {@link ParallelMapperImpl} with shared and work-stealing queues
+     */
+    @Param({"threads", "mapper", "stealing"})
+    private String backend;
+
+    private List<Integer> values;
+    private ParallelMapperImpl mapper;
+    private IterativeParallelism parallelism;
+    private Predicate<Integer> predicate;
+    private Function<Integer, Integer> function;
+    private AdvancedIP.Monoid<Integer> sum;
+
+    @Setup
+    public void setUp() {
+        values = IntStream.range(0, size).boxed().collect(Collectors.toList());
+        if (backend.equals("threads")) {
+            parallelism = new IterativeParallelism();
+        } else {
+            mapper = new ParallelMapperImpl(threads, backend.equals("stealing"));
+            parallelism = new IterativeParallelism(mapper);
+        }
+        boolean expensive = cost.equals("expensive");
+        predicate = element -> {
+            if (expensive) {
+                Blackhole.consumeCPU(EXPENSIVE_TOKENS);
+            }
+            return element < 0;
+        };
+        function = element -> {
+            if (expensive) {
+                Blackhole.consumeCPU(EXPENSIVE_TOKENS);
+            }
+            return element + 1;
+        };
+        sum = new AdvancedIP.Monoid<>(0, Integer::sum);
+    }
+
+    @TearDown
+    public void tearDown() {
+        parallelism.close();
+        if (mapper != null) {
+            mapper.close();
+        }
+    }
+
+    @Benchmark
+    public Integer maximum() throws InterruptedException {
+        return parallelism.maximum(threads, values, Integer::compare);
+    }
+
+    /**
+     * No element matches, so every slice is scanned to the end
+     */
+    @Benchmark
+    public boolean any() throws InterruptedException {
+        return parallelism.any(threads, values, predicate);
+    }
+
+    @Benchmark
+    public List<Integer> filter() throws InterruptedException {
+        return parallelism.filter(threads, values, predicate.negate());
+    }
+
+    @Benchmark
+    public List<Integer> map() throws InterruptedException {
+        return parallelism.map(threads, values, function);
+    }
+
+    @Benchmark
+    public String join() throws InterruptedException {
+        return parallelism.join(threads, values);
+    }
+
+    @Benchmark
+    public Integer mapReduce() throws InterruptedException {
+        return parallelism.mapReduce(threads, values, function, sum);
+    }
+}
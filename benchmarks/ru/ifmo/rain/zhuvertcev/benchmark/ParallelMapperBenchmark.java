@@ -0,0 +1,70 @@
+package ru.ifmo.rain.zhuvertcev.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.ifmo.rain.zhuvertcev.mapper.ParallelMapperImpl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmarks of {@link ParallelMapperImpl#map} with different task queues
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParallelMapperBenchmark {
+    private static final long EXPENSIVE_TOKENS = 100;
+
+    @Param({"100", "10000", "1000000", "10000000"})
+    private int size;
+
+    @Param({"1", "4", "16"})
+    private int threads;
+
+    @Param({"cheap", "expensive"})
+    private String cost;
+
+    /**
+     * Task queue of mapper: <var>shared</var>, <var>stealing</var> or thread per task on <var>virtual</var> threads
+     */
+    @Param({"shared", "stealing", "virtual"})
+    private String queue;
+
+    private List<Integer> values;
+    private ParallelMapperImpl mapper;
+    private Function<Integer, Integer> function;
+
+    @Setup
+    public void setUp() {
+        values = IntStream.range(0, size).boxed().collect(Collectors.toList());
+        if (queue.equals("virtual")) {
+            mapper = ParallelMapperImpl.virtual(threads);
+        } else {
+            mapper = new ParallelMapperImpl(threads, queue.equals("stealing"));
+        }
+        boolean expensive = cost.equals("expensive");
+        function = element -> {
+            if (expensive) {
+                Blackhole.consumeCPU(EXPENSIVE_TOKENS);
+            }
+            return element + 1;
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        mapper.close();
+    }
+
+    @Benchmark
+    public List<Integer> map() throws InterruptedException {
+        return mapper.map(function, values);
+    }
+}
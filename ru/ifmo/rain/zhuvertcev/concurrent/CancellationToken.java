@@ -0,0 +1,78 @@
+package ru.ifmo.rain.zhuvertcev.mapper;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Flag for cooperative cancellation of calls, shared between caller and calls.
+ * <p>
+ * Token can't be reset, once cancelled it stays cancelled. Calls register listeners
+ * to release their resources when token is cancelled, mapping functions can check it too
+ */
+public class CancellationToken {
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final Queue<Runnable> listeners = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Cancel token and run its listeners. Does nothing if token is already cancelled
+     */
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true)) {
+            for (Runnable listener = listeners.poll(); listener != null; listener = listeners.poll()) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Cancel token after timeout, so it works as deadline
+     *
+     * @param timeout time before cancellation
+     * @param unit unit of <var>timeout</var>
+     * @return this token
+     */
+    public CancellationToken cancelAfter(long timeout, TimeUnit unit) {
+        CompletableFuture.delayedExecutor(timeout, unit).execute(this::cancel);
+        return this;
+    }
+
+    /**
+     * Check whether token is cancelled
+     *
+     * @return <code>true</code> if token is cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Throw exception if token is cancelled
+     *
+     * @throws CancellationException if token is cancelled
+     */
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("Cancelled by token");
+        }
+    }
+
+    /**
+     * Register listener called on cancellation. If token is already cancelled,
+     * <var>listener</var> is called at once by calling thread
+     *
+     * @param listener action to run on cancellation
+     * @return {@link Runnable} unregistering <var>listener</var>
+     */
+    public Runnable onCancel(Runnable listener) {
+        listeners.add(listener);
+        // cancel() could drain listeners before we were added
+        if (isCancelled() && listeners.remove(listener)) {
+            listener.run();
+        }
+        return () -> listeners.remove(listener);
+    }
+}
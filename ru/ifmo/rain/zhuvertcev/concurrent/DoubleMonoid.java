@@ -0,0 +1,67 @@
+package ru.ifmo.rain.zhuvertcev.concurrent;
+
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Monoid over primitive <code>double</code> values, reductions with it don't box elements
+ */
+public class DoubleMonoid {
+    private final double identity;
+    private final DoubleBinaryOperator operator;
+
+    /**
+     * Create monoid with given identity and associative operator
+     *
+     * @param identity identity element of <var>operator</var>
+     * @param operator associative operator
+     */
+    public DoubleMonoid(final double identity, final DoubleBinaryOperator operator) {
+        this.identity = identity;
+        this.operator = operator;
+    }
+
+    /**
+     * Monoid of sum
+     *
+     * @return {@link DoubleMonoid} with identity 0 and operator +
+     */
+    public static DoubleMonoid sum() {
+        return new DoubleMonoid(0, Double::sum);
+    }
+
+    /**
+     * Monoid of minimum
+     *
+     * @return {@link DoubleMonoid} with identity <code>Double.POSITIVE_INFINITY</code> and operator min
+     */
+    public static DoubleMonoid min() {
+        return new DoubleMonoid(Double.POSITIVE_INFINITY, Math::min);
+    }
+
+    /**
+     * Monoid of maximum
+     *
+     * @return {@link DoubleMonoid} with identity <code>Double.NEGATIVE_INFINITY</code> and operator max
+     */
+    public static DoubleMonoid max() {
+        return new DoubleMonoid(Double.NEGATIVE_INFINITY, Math::max);
+    }
+
+    /**
+     * Get identity element
+     *
+     * @return identity of this monoid
+     */
+    public double getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Get operator
+     *
+     * @return associative operator of this monoid
+     */
+    public DoubleBinaryOperator getOperator() {
+        return operator;
+    }
+}
@@ -0,0 +1,15 @@
+package ru.ifmo.rain.zhuvertcev.mapper;
+
+/**
+ * What {@link ParallelMapperImpl} does, when mapping function throws exception
+ */
+public enum FailurePolicy {
+    /**
+     * Fail call on first exception, elements not mapped yet are skipped
+     */
+    FAIL_FAST,
+    /**
+     * Map all elements, then fail call with first exception, others are added to it as suppressed
+     */
+    COLLECT_ALL
+}
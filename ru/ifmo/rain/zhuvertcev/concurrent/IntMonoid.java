@@ -0,0 +1,67 @@
+package ru.ifmo.rain.zhuvertcev.concurrent;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Monoid over primitive <code>int</code> values, reductions with it don't box elements
+ */
+public class IntMonoid {
+    private final int identity;
+    private final IntBinaryOperator operator;
+
+    /**
+     * Create monoid with given identity and associative operator
+     *
+     * @param identity identity element of <var>operator</var>
+     * @param operator associative operator
+     */
+    public IntMonoid(final int identity, final IntBinaryOperator operator) {
+        this.identity = identity;
+        this.operator = operator;
+    }
+
+    /**
+     * Monoid of sum
+     *
+     * @return {@link IntMonoid} with identity 0 and operator +
+     */
+    public static IntMonoid sum() {
+        return new IntMonoid(0, Integer::sum);
+    }
+
+    /**
+     * Monoid of minimum
+     *
+     * @return {@link IntMonoid} with identity <code>Integer.MAX_VALUE</code> and operator min
+     */
+    public static IntMonoid min() {
+        return new IntMonoid(Integer.MAX_VALUE, Math::min);
+    }
+
+    /**
+     * Monoid of maximum
+     *
+     * @return {@link IntMonoid} with identity <code>Integer.MIN_VALUE</code> and operator max
+     */
+    public static IntMonoid max() {
+        return new IntMonoid(Integer.MIN_VALUE, Math::max);
+    }
+
+    /**
+     * Get identity element
+     *
+     * @return identity of this monoid
+     */
+    public int getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Get operator
+     *
+     * @return associative operator of this monoid
+     */
+    public IntBinaryOperator getOperator() {
+        return operator;
+    }
+}
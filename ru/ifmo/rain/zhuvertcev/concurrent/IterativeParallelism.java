@@ -2,86 +2,446 @@ package ru.ifmo.rain.zhuvertcev.concurrent;
 
 import info.kgeorgiy.java.advanced.concurrent.AdvancedIP;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+import ru.ifmo.rain.zhuvertcev.mapper.CancellationToken;
+import ru.ifmo.rain.zhuvertcev.mapper.ParallelMapperImpl;
+import ru.ifmo.rain.zhuvertcev.mapper.ThreadPerTaskExecutor;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+import java.util.function.DoublePredicate;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.lang.Integer.min;
 
-public class IterativeParallelism implements AdvancedIP {
+public class IterativeParallelism implements AdvancedIP, AutoCloseable {
+    /**
+     * Number of elements read from iterator for one thread at once
+     */
+    private static final int STREAM_BATCH_SIZE = 4096;
+
+    /**
+     * Number of slices per thread, extra slices are claimed by threads finishing early
+     */
+    private static final int SLICES_PER_THREAD = 4;
+
+    /**
+     * Expected time of all slices, below which starting threads costs more than it gives
+     */
+    private static final long SEQUENTIAL_THRESHOLD_NANOS = 100_000;
+
+    /**
+     * Number of candidates for order statistic, which are sorted instead of further partitioning
+     */
+    private static final int SELECTION_SORT_THRESHOLD = 1024;
+
+    /**
+     * Size of sample kept by every thread for quantile estimation
+     */
+    private static final int QUANTILE_SAMPLE_SIZE = 1024;
+
+    /**
+     * Key standing for <code>null</code> in concurrent maps
+     */
+    private static final Object NULL_KEY = new Object();
+
     private final ParallelMapper parallelMapper;
+    private final Executor executor;
+    private final CancellationToken cancellation;
+    private volatile ExecutorService ownPool;
+    private boolean closed;
 
     /**
-     * Create IterativeParallelism with default mapper
+     * Create IterativeParallelism with default mapper.
+     * <p>
+     * Slices are run on own pool of daemon threads, which is created on first use,
+     * reuses idle threads between calls and is shut down by {@link #close()}
      */
-    public IterativeParallelism() { parallelMapper = null;}
+    public IterativeParallelism() {
+        parallelMapper = null;
+        executor = null;
+        cancellation = null;
+    }
 
     /**
      * Create IterativeParallelism with given mapper
      *
      * @param parallelMapper mapper for parallel
      */
-    public IterativeParallelism(ParallelMapper parallelMapper) { this.parallelMapper = parallelMapper;}
+    public IterativeParallelism(ParallelMapper parallelMapper) {
+        this.parallelMapper = parallelMapper;
+        executor = null;
+        cancellation = null;
+    }
+
+    /**
+     * Create IterativeParallelism running slices on given executor.
+     * <p>
+     * Executor can be shared between several instances, {@link #close()} doesn't shut it down
+     *
+     * @param executor executor for parallel
+     */
+    public IterativeParallelism(Executor executor) {
+        parallelMapper = null;
+        this.executor = Objects.requireNonNull(executor);
+        cancellation = null;
+    }
+
+    private IterativeParallelism(IterativeParallelism parent, CancellationToken cancellation) {
+        parallelMapper = parent.parallelMapper;
+        executor = parent.executor != null ? parent.executor : task -> parent.getExecutor().execute(task);
+        this.cancellation = Objects.requireNonNull(cancellation);
+    }
+
+    /**
+     * Get view of this IterativeParallelism, which stops operations when <var>cancellation</var> is cancelled.
+     * <p>
+     * Token is checked before every slice, and threads running slices are interrupted on cancellation,
+     * so functions blocking or checking interrupt flag stop early. Calling thread doesn't wait
+     * for running slices and throws {@link CancellationException} at once. With {@link ParallelMapper} other
+     * than {@link ParallelMapperImpl} calling thread still waits for running slices. For deadline use
+     * {@link #withTimeout(long, TimeUnit)}. View shares threads of this instance and its {@link #close()} does nothing
+     *
+     * @param cancellation token cancelling operations
+     * @return cancellable {@link IterativeParallelism}
+     */
+    public IterativeParallelism withCancellation(CancellationToken cancellation) {
+        return new IterativeParallelism(this, cancellation);
+    }
+
+    /**
+     * Get view of this IterativeParallelism, which operations are cancelled after <var>timeout</var>.
+     * <p>
+     * Deadline is common for all operations of view and counts from this call
+     *
+     * @param timeout time before cancellation
+     * @param unit unit of <var>timeout</var>
+     * @return {@link IterativeParallelism} with deadline
+     * @see #withCancellation(CancellationToken)
+     */
+    public IterativeParallelism withTimeout(long timeout, TimeUnit unit) {
+        return withCancellation(new CancellationToken().cancelAfter(timeout, unit));
+    }
+
+    /**
+     * Apply <var>mapper</var> to slice, unless operation is cancelled
+     *
+     * @throws CancellationException if token of this instance is cancelled
+     */
+    private <E> E applyToSlice(Function<Slice, ? extends E> mapper, Slice slice) {
+        if (cancellation != null) {
+            cancellation.throwIfCancelled();
+        }
+        return mapper.apply(slice);
+    }
+
+    /**
+     * Create IterativeParallelism running every slice on new virtual thread.
+     * Suits predicates and functions blocking on I/O.
+     *
+     * @param maxConcurrency maximal number of simultaneously running slices
+     * @return {@link IterativeParallelism} on virtual threads
+     */
+    public static IterativeParallelism virtual(int maxConcurrency) {
+        return new IterativeParallelism(ThreadPerTaskExecutor.virtual(maxConcurrency));
+    }
+
+    /**
+     * Get executor for slices, creating own pool on first call
+     *
+     * @return {@link Executor} to run slices
+     */
+    private Executor getExecutor() {
+        if (executor != null) {
+            return executor;
+        }
+        ExecutorService pool = ownPool;
+        if (pool == null) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("IterativeParallelism is closed");
+                }
+                pool = ownPool;
+                if (pool == null) {
+                    pool = Executors.newCachedThreadPool(task -> {
+                        Thread thread = new Thread(task, "IterativeParallelism-worker");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    ownPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Range <code>[from, to)</code> of indices processed by one thread
+     */
+    private static class Slice {
+        private final int index;
+        private final int from;
+        private final int to;
+
+        public Slice(int index, int from, int to) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Threads running slices of one operation, which are interrupted, when operation is cancelled
+     */
+    private static class RunningSlices {
+        private final Set<Thread> threads = new HashSet<>();
+        private boolean interrupted;
 
-    private <T, E> E parallelReduce(int threadCount, final List<? extends T> values,
+        /**
+         * Run <var>slices</var> by current thread, unless operation is already cancelled
+         *
+         * @param slices task claiming slices
+         */
+        public void run(Runnable slices) {
+            Thread current = Thread.currentThread();
+            synchronized (this) {
+                if (interrupted) {
+                    return;
+                }
+                threads.add(current);
+            }
+            try {
+                slices.run();
+            } finally {
+                synchronized (this) {
+                    threads.remove(current);
+                    if (interrupted) {
+                        // interrupt was meant for slices, not for owner of thread
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Interrupt threads running slices and don't let others start
+         */
+        public synchronized void interrupt() {
+            interrupted = true;
+            threads.forEach(Thread::interrupt);
+        }
+    }
+
+    /**
+     * Split <var>values</var> into slices, apply <var>mapper</var> to stream of every slice
+     * in parallel and join results by <var>joiner</var>
+     *
+     * @param threadCount maximal number of threads
+     * @param values values to process
+     * @param mapper function computing result of one slice
+     * @param joiner function combining results of slices in order
+     * @param <T> type of values
+     * @param <E> type of result
+     * @return joined result
+     * @throws InterruptedException if calling thread was interrupted while waiting for slices
+     */
+    <T, E> E parallelReduce(int threadCount, final List<? extends T> values,
                                     Function<Stream<? extends T>, ? extends E> mapper,
                                     Function<Stream<? extends E>, ? extends E> joiner) throws InterruptedException {
-        int necessaryThreadCount = min(values.size(), threadCount);
-        int sliceSize = values.size() / necessaryThreadCount;
-        int restSize = values.size() % necessaryThreadCount;
-        List<Stream<? extends T>> slices = new ArrayList<>();
-        for (int i = 0, to, from = 0; i < necessaryThreadCount; i++) {
-            to = sliceSize + from;
-            if (i < restSize) {
-                to++;
-            }
-            slices.add(values.subList(from, to).stream());
-            from = to;
-        }
-        List<Thread> threadsList = new ArrayList<>();
-        List<E> threadsResults;
+        return parallelSlices(threadCount, values.size(),
+                slice -> mapper.apply(values.subList(slice.from, slice.to).stream()), joiner);
+    }
+
+    /**
+     * Split indices <code>[0, size)</code> into slices, apply <var>mapper</var> to every slice
+     * in parallel and join results by <var>joiner</var>.
+     * <p>
+     * Indices are split into up to {@link #SLICES_PER_THREAD} slices per thread, and threads claim
+     * next slice when they finish previous one, so slow slices don't keep others idle.
+     * Calling thread first runs small prefix of indices as separate slice and measures it:
+     * if all indices are expected to take less than {@link #SEQUENTIAL_THRESHOLD_NANOS},
+     * the rest is run sequentially too. With cancellation token calling thread runs no slices
+     * and only waits for them, so it can leave at once, when token is cancelled
+     *
+     * @param threadCount maximal number of threads
+     * @param size number of elements
+     * @param mapper function computing result of one slice
+     * @param joiner function combining results of slices in order
+     * @param <E> type of result of slice
+     * @param <R> type of joined result
+     * @return joined result
+     * @throws InterruptedException if calling thread was interrupted while waiting for slices
+     */
+    private <E, R> R parallelSlices(int threadCount, final int size,
+                                    Function<Slice, ? extends E> mapper,
+                                    Function<Stream<? extends E>, ? extends R> joiner) throws InterruptedException {
+        int splitCount = threadCount <= 1 ? 1 : Math.max(1, min(size, threadCount * SLICES_PER_THREAD));
+        // sample is much smaller than slice, so slow elements at the front don't delay others for long
+        int sampleSize = splitCount == 1 ? size : Math.max(1, size / (splitCount * SLICES_PER_THREAD));
+        List<Slice> slices = new ArrayList<>();
+        slices.add(new Slice(0, 0, sampleSize));
+        int restCount = min(splitCount, size - sampleSize);
+        if (restCount > 0) {
+            int sliceSize = (size - sampleSize) / restCount;
+            int restSize = (size - sampleSize) % restCount;
+            for (int i = 1, to, from = sampleSize; i <= restCount; i++) {
+                to = sliceSize + from;
+                if (i <= restSize) {
+                    to++;
+                }
+                slices.add(new Slice(i, from, to));
+                from = to;
+            }
+        }
+        int slicesCount = slices.size();
+        List<E> slicesResults = new ArrayList<>(Collections.nCopies(slicesCount, null));
+
+        AtomicInteger nextSlice;
+        int necessaryThreadCount;
+        if (cancellation == null) {
+            long sampleStart = System.nanoTime();
+            slicesResults.set(0, applyToSlice(mapper, slices.get(0)));
+            long sampleNanos = System.nanoTime() - sampleStart;
+            nextSlice = new AtomicInteger(1);
+            necessaryThreadCount = min(threadCount, restCount);
+            if (necessaryThreadCount <= 1 || (double) sampleNanos * size / sampleSize < SEQUENTIAL_THRESHOLD_NANOS) {
+                for (int i = 1; i < slicesCount; i++) {
+                    slicesResults.set(i, applyToSlice(mapper, slices.get(i)));
+                }
+                return joiner.apply(slicesResults.stream());
+            }
+        } else {
+            // sample slice is claimed by threads like others, calling thread only waits
+            nextSlice = new AtomicInteger(0);
+            necessaryThreadCount = Math.max(1, min(threadCount, slicesCount));
+        }
+
+        RunningSlices running = new RunningSlices();
+        Runnable claimSlices = () -> running.run(() -> {
+            for (int i = nextSlice.getAndIncrement(); i < slicesCount; i = nextSlice.getAndIncrement()) {
+                slicesResults.set(i, applyToSlice(mapper, slices.get(i)));
+            }
+        });
         if (parallelMapper != null) {
-            threadsResults = parallelMapper.map(mapper, slices);
+            Function<Object, Object> threadTask = thread -> {
+                claimSlices.run();
+                return null;
+            };
+            List<Object> threadsList = Collections.nCopies(necessaryThreadCount, null);
+            Runnable unregister = cancellation == null ? () -> {} : cancellation.onCancel(running::interrupt);
+            try {
+                if (cancellation != null && parallelMapper instanceof ParallelMapperImpl) {
+                    // own mapper releases calling thread at once, others wait for running slices
+                    ((ParallelMapperImpl) parallelMapper).map(threadTask, threadsList, cancellation);
+                } else {
+                    parallelMapper.map(threadTask, threadsList);
+                }
+            } catch (RuntimeException | Error e) {
+                // slices interrupted by cancellation could fail before mapper noticed cancellation
+                if (cancellation != null) {
+                    cancellation.throwIfCancelled();
+                }
+                throw e;
+            } finally {
+                unregister.run();
+            }
+            if (cancellation != null) {
+                cancellation.throwIfCancelled();
+            }
         } else {
-            threadsResults = new ArrayList<>(Collections.nCopies(necessaryThreadCount, null));
-
-            for (int i = 0; i < necessaryThreadCount; i++) {
-                final int pos = i;
-                threadsList.add(new Thread(() -> threadsResults.set(pos, mapper.apply(slices.get(pos)))));
-                threadsList.get(i).start();
-            }
-
-            InterruptedException threadSuppressedExceptions = null;
-            for (Thread thread : threadsList) {
-                try {
-                    thread.join();
-                } catch (InterruptedException e) {
-                    if (threadSuppressedExceptions == null) {
-                        threadSuppressedExceptions = e;
-                    } else {
-                        threadSuppressedExceptions.addSuppressed(e);
+            CountDownLatch remaining = new CountDownLatch(necessaryThreadCount);
+            AtomicReference<Throwable> sliceException = new AtomicReference<>();
+            // cancellation releases caller at once, running slices are interrupted
+            Runnable unregister = cancellation == null ? () -> {} : cancellation.onCancel(() -> {
+                nextSlice.set(slicesCount);
+                running.interrupt();
+                while (remaining.getCount() > 0) {
+                    remaining.countDown();
+                }
+            });
+
+            Executor sliceExecutor = getExecutor();
+            for (int i = necessaryThreadCount - 1; i >= 0; i--) {
+                Runnable task = () -> {
+                    try {
+                        claimSlices.run();
+                    } catch (Throwable e) {
+                        // errors are rethrown by calling thread too, otherwise result would have gaps
+                        if (!sliceException.compareAndSet(null, e) && sliceException.get() != e) {
+                            sliceException.get().addSuppressed(e);
+                        }
+                        // slices of failed thread are not needed anymore
+                        nextSlice.set(slicesCount);
+                    } finally {
+                        remaining.countDown();
                     }
+                };
+                // calling thread claims slices too instead of waiting idle,
+                // unless it should be able to leave on cancellation
+                if (i == 0 && cancellation == null) {
+                    task.run();
+                } else {
+                    sliceExecutor.execute(task);
                 }
             }
 
-            if (threadSuppressedExceptions != null) {
-                throw threadSuppressedExceptions;
+            try {
+                remaining.await();
+            } catch (InterruptedException e) {
+                // nobody will read results, so threads stop after current slices
+                nextSlice.set(slicesCount);
+                throw e;
+            } finally {
+                unregister.run();
+            }
+            if (cancellation != null) {
+                cancellation.throwIfCancelled();
+            }
+            Throwable failure = sliceException.get();
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            if (failure != null) {
+                throw (RuntimeException) failure;
             }
         }
 
-        return joiner.apply(threadsResults.stream());
+        return joiner.apply(slicesResults.stream());
     }
 
+    /**
+     * Returns maximum of <var>values</var>.
+     * <p>
+     * Empty slices have no maximum, so they are skipped when maximums of slices are joined
+     *
+     * @return maximal element, <code>null</code> if <var>values</var> are empty
+     */
     @Override
     public <T> T maximum(int threads, List<? extends T> values, Comparator<? super T> comparator)
             throws InterruptedException {
-        Function<Stream<? extends T>, ? extends T> streamMax = stream -> stream.max(comparator).orElse(null);
-        return parallelReduce(threads, values, streamMax, streamMax);
+        return parallelReduce(threads, values, stream -> stream.max(comparator).orElse(null),
+                stream -> stream.filter(Objects::nonNull).max(comparator).orElse(null));
     }
 
+    /**
+     * Returns minimum of <var>values</var>
+     *
+     * @return minimal element, <code>null</code> if <var>values</var> are empty
+     */
     @Override
     public <T> T minimum(int threads, List<? extends T> values, Comparator<? super T> comparator)
             throws InterruptedException {
@@ -91,38 +451,119 @@ public class IterativeParallelism implements AdvancedIP {
     @Override
     public <T> boolean all(int threads, List<? extends T> values, Predicate<? super T> predicate)
             throws InterruptedException {
-        return parallelReduce(threads, values, stream -> stream.allMatch(predicate),
-                stream -> stream.allMatch(bool -> bool == Boolean.TRUE));
+        return !any(threads, values, predicate.negate());
     }
 
+    /**
+     * Check that some of <var>values</var> matches <var>predicate</var>.
+     * <p>
+     * Thread, which found matching element, raises shared flag, so others stop scanning their slices.
+     * With {@link ParallelMapper} slices, which are not started yet, stop at once too.
+     */
     @Override
     public <T> boolean any(int threads, List<? extends T> values, Predicate<? super T> predicate)
             throws InterruptedException {
-        return parallelReduce(threads, values, stream -> stream.anyMatch(predicate),
+        AtomicBoolean found = new AtomicBoolean();
+        return parallelReduce(threads, values, stream -> {
+                    boolean sliceResult = stream.takeWhile(element -> !found.get()).anyMatch(predicate);
+                    if (sliceResult) {
+                        found.set(true);
+                    }
+                    return sliceResult;
+                },
                 stream -> stream.anyMatch(bool -> bool == Boolean.TRUE));
     }
 
+    /**
+     * Join string representations of <var>values</var>.
+     * <p>
+     * Every thread builds string of own slice, then length of result is known, and
+     * slices are appended to builder of this length without resizing
+     */
     @Override
     public String join(int threads, List<?> values) throws InterruptedException {
-        return parallelReduce(threads, values,
-                stream -> stream.map(Object::toString).collect(Collectors.joining("")),
-                stream -> stream.collect(Collectors.joining()));
+        List<String> parts = parallelSlices(threads, values.size(), slice -> {
+            StringBuilder part = new StringBuilder();
+            for (int i = slice.from; i < slice.to; i++) {
+                part.append(values.get(i).toString());
+            }
+            return part.toString();
+        }, stream -> stream.collect(Collectors.toList()));
+
+        int length = 0;
+        for (String part : parts) {
+            length = Math.addExact(length, part.length());
+        }
+        StringBuilder result = new StringBuilder(length);
+        for (String part : parts) {
+            result.append(part);
+        }
+        return result.toString();
     }
 
+    /**
+     * Filter <var>values</var> preserving order.
+     * <p>
+     * Every thread collects matching elements of own slice, then result array is allocated once
+     * and slices are copied into it in parallel at their offsets
+     *
+     * @return {@link ArrayList} of matching elements
+     */
     @Override
     public <T> List<T> filter(int threads, List<? extends T> values, Predicate<? super T> predicate)
             throws InterruptedException {
-        return parallelReduce(threads, values,
-                stream -> stream.filter(predicate).collect(Collectors.toList()),
-                stream -> stream.flatMap(List::stream).collect(Collectors.toList()));
+        return filterIndices(threads, values, i -> predicate.test(values.get(i)));
     }
 
+    /**
+     * Filter <var>values</var> by their indices preserving order
+     */
+    private <T> List<T> filterIndices(int threads, List<? extends T> values, IntPredicate predicate)
+            throws InterruptedException {
+        List<List<T>> parts = parallelSlices(threads, values.size(), slice -> {
+            List<T> part = new ArrayList<>();
+            for (int i = slice.from; i < slice.to; i++) {
+                if (predicate.test(i)) {
+                    part.add(values.get(i));
+                }
+            }
+            return part;
+        }, stream -> stream.collect(Collectors.toList()));
+
+        int[] offsets = new int[parts.size() + 1];
+        for (int i = 0; i < parts.size(); i++) {
+            offsets[i + 1] = offsets[i] + parts.get(i).size();
+        }
+        Object[] result = new Object[offsets[parts.size()]];
+        parallelSlices(threads, parts.size(), slice -> {
+            for (int i = slice.from; i < slice.to; i++) {
+                int pos = offsets[i];
+                for (T element : parts.get(i)) {
+                    result[pos++] = element;
+                }
+            }
+            return null;
+        }, stream -> null);
+        return arrayList(result);
+    }
+
+    /**
+     * Map <var>values</var> preserving order. Every thread writes results of own slice
+     * directly into shared result array
+     *
+     * @return {@link ArrayList} of results
+     */
     @Override
     public <T, U> List<U> map(int threads, List<? extends T> values, Function<? super T, ? extends U> f)
             throws InterruptedException {
-        return parallelReduce(threads, values,
-                stream -> stream.map(f).collect(Collectors.toList()),
-                stream -> stream.flatMap(List::stream).collect(Collectors.toList()));
+        Object[] result = new Object[values.size()];
+        parallelSlices(threads, values.size(), slice -> {
+            for (int i = slice.from; i < slice.to; i++) {
+                result[i] = f.apply(values.get(i));
+            }
+            return null;
+        }, stream -> null);
+        return arrayList(result);
     }
 
     @Override
@@ -133,10 +574,971 @@ public class IterativeParallelism implements AdvancedIP {
     @Override
     public <T, R> R mapReduce(int threads, List<T> values, Function<T, R> lift, Monoid<R> monoid)
             throws InterruptedException {
-        Function<Stream<? extends T>, ? extends R> applyMapMonoid = stream -> stream.map(element -> (T) element).map(lift)
-                .reduce(monoid.getIdentity(), monoid.getOperator());
-        Function<Stream<? extends R>, ? extends R> applyMonoid = stream -> stream.map(element -> (R) element)
-                .reduce(monoid.getIdentity(), monoid.getOperator());
+        BinaryOperator<R> operator = monoid.getOperator();
+        Function<Stream<? extends T>, ? extends R> applyMapMonoid = stream -> stream.map(lift)
+                .reduce(monoid.getIdentity(), operator);
+        Function<Stream<? extends R>, ? extends R> applyMonoid = stream -> stream
+                .reduce(monoid.getIdentity(), operator::apply, operator);
         return parallelReduce(threads, values, applyMapMonoid, applyMonoid);
     }
+
+    /**
+     * Compute inclusive prefix reductions: element <var>i</var> of result is reduction of
+     * elements <code>0..i</code> of <var>values</var>.
+     * <p>
+     * Every thread reduces own slice, offsets of slices are combined from these totals,
+     * then every thread scans own slice starting from its offset
+     *
+     * @param threads maximal number of threads
+     * @param values values to scan
+     * @param monoid monoid to reduce by
+     * @param <T> type of values
+     * @return {@link List} of prefix reductions
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T> List<T> scan(int threads, List<? extends T> values, Monoid<T> monoid) throws InterruptedException {
+        return parallelScan(threads, values, monoid, true);
+    }
+
+    /**
+     * Compute exclusive prefix reductions: element <var>i</var> of result is reduction of
+     * elements <code>0..i-1</code> of <var>values</var>, first one is identity of <var>monoid</var>
+     *
+     * @param threads maximal number of threads
+     * @param values values to scan
+     * @param monoid monoid to reduce by
+     * @param <T> type of values
+     * @return {@link List} of prefix reductions
+     * @throws InterruptedException if calling thread was interrupted
+     * @see #scan(int, List, Monoid)
+     */
+    public <T> List<T> exclusiveScan(int threads, List<? extends T> values, Monoid<T> monoid)
+            throws InterruptedException {
+        return parallelScan(threads, values, monoid, false);
+    }
+
+    private <T> List<T> parallelScan(int threads, List<? extends T> values, Monoid<T> monoid, boolean inclusive)
+            throws InterruptedException {
+        BinaryOperator<T> operator = monoid.getOperator();
+        List<T> totals = parallelSlices(threads, values.size(), slice -> {
+            T total = monoid.getIdentity();
+            for (int i = slice.from; i < slice.to; i++) {
+                total = operator.apply(total, values.get(i));
+            }
+            return total;
+        }, stream -> stream.collect(Collectors.toList()));
+
+        List<T> offsets = new ArrayList<>(totals.size());
+        T offset = monoid.getIdentity();
+        for (T total : totals) {
+            offsets.add(offset);
+            offset = operator.apply(offset, total);
+        }
+
+        Object[] result = new Object[values.size()];
+        parallelSlices(threads, values.size(), slice -> {
+            T current = offsets.get(slice.index);
+            for (int i = slice.from; i < slice.to; i++) {
+                T next = operator.apply(current, values.get(i));
+                result[i] = inclusive ? next : current;
+                current = next;
+            }
+            return null;
+        }, stream -> null);
+        return asList(result);
+    }
+
+    /**
+     * Group <var>values</var> by <var>key</var> and reduce lifted values of every group by <var>monoid</var>.
+     * <p>
+     * Segmented reduction: every thread reduces own slice into runs of consecutive elements with equal keys,
+     * putting them into partitions by hash of key. Run cut by slice boundary is then joined with its
+     * continuation in next slice, like offsets of {@link #scan(int, List, Monoid)} are propagated,
+     * and in fixup pass every thread merges runs of own partitions from all slices.
+     * Values of every group are reduced in order of <var>values</var>, so <var>monoid</var> needn't be
+     * commutative. When equal keys are adjacent, e.g. in sorted values, there are few runs to merge
+     *
+     * @param threads maximal number of threads
+     * @param values values to group
+     * @param key function computing key of group
+     * @param lift function computing value to reduce
+     * @param monoid monoid to reduce by
+     * @param <T> type of values
+     * @param <K> type of keys
+     * @param <R> type of reduced values
+     * @return {@link Map} from key to reduction of its group
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T, K, R> Map<K, R> reduceByKey(int threads, List<? extends T> values, Function<? super T, ? extends K> key,
+                                           Function<? super T, ? extends R> lift, Monoid<R> monoid)
+            throws InterruptedException {
+        BinaryOperator<R> operator = monoid.getOperator();
+        int partitions = Math.max(1, threads) * SLICES_PER_THREAD;
+        List<SliceRuns<K, R>> slicesRuns = parallelSlices(threads, values.size(), slice -> {
+            SliceRuns<K, R> runs = new SliceRuns<>(partitions);
+            for (int i = slice.from; i < slice.to; i++) {
+                T element = values.get(i);
+                K runKey = key.apply(element);
+                if (runs.last != null && Objects.equals(runs.last.key, runKey)) {
+                    runs.last.value = operator.apply(runs.last.value, lift.apply(element));
+                } else {
+                    int partition = Math.floorMod(Objects.hashCode(runKey), partitions);
+                    runs.add(new Run<>(runKey, lift.apply(element)), partition);
+                }
+            }
+            return runs;
+        }, stream -> stream.collect(Collectors.toList()));
+
+        Run<K, R> previous = null;
+        for (SliceRuns<K, R> runs : slicesRuns) {
+            if (runs.first == null) {
+                continue;
+            }
+            if (previous != null && Objects.equals(previous.key, runs.first.key)) {
+                previous.value = operator.apply(previous.value, runs.first.value);
+                runs.first.joined = true;
+            }
+            if (!runs.last.joined) {
+                previous = runs.last;
+            }
+        }
+
+        return parallelSlices(threads, partitions, slice -> {
+            Map<K, R> groups = new HashMap<>();
+            for (int p = slice.from; p < slice.to; p++) {
+                for (SliceRuns<K, R> runs : slicesRuns) {
+                    for (Run<K, R> run : runs.partitions.get(p)) {
+                        if (!run.joined) {
+                            groups.merge(run.key, run.value, operator);
+                        }
+                    }
+                }
+            }
+            return groups;
+        }, stream -> {
+            // partitions have distinct keys, so groups are just put together
+            Map<K, R> result = new HashMap<>();
+            stream.forEach(result::putAll);
+            return result;
+        });
+    }
+
+    /**
+     * Reduction of run of consecutive elements with equal keys
+     */
+    private static class Run<K, R> {
+        private final K key;
+        private R value;
+        /**
+         * Run continues last run of previous slice and is reduced into it
+         */
+        private boolean joined;
+
+        public Run(K key, R value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Runs of one slice, split into partitions by hash of key
+     */
+    private static class SliceRuns<K, R> {
+        private final List<List<Run<K, R>>> partitions;
+        private Run<K, R> first;
+        private Run<K, R> last;
+
+        public SliceRuns(int partitionsCount) {
+            partitions = new ArrayList<>(partitionsCount);
+            for (int p = 0; p < partitionsCount; p++) {
+                partitions.add(new ArrayList<>());
+            }
+        }
+
+        public void add(Run<K, R> run, int partition) {
+            partitions.get(partition).add(run);
+            if (first == null) {
+                first = run;
+            }
+            last = run;
+        }
+    }
+
+    /**
+     * Returns <var>k</var> greatest elements of <var>values</var> in descending order.
+     * <p>
+     * Every thread keeps heap of <var>k</var> greatest elements of own slice, heaps are merged by joiner
+     *
+     * @param threads maximal number of threads
+     * @param values values to choose from
+     * @param k number of elements to return
+     * @param comparator comparator of elements
+     * @param <T> type of values
+     * @return {@link List} of at most <var>k</var> greatest elements, greatest first
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T> List<T> topK(int threads, List<? extends T> values, int k, Comparator<? super T> comparator)
+            throws InterruptedException {
+        if (k < 0) {
+            throw new IllegalArgumentException("Number of elements should be non-negative: " + k);
+        }
+        List<T> result = new ArrayList<>(parallelSlices(threads, values.size(), slice -> {
+            PriorityQueue<T> heap = new PriorityQueue<>(comparator);
+            for (int i = slice.from; i < slice.to; i++) {
+                offerBounded(heap, values.get(i), k, comparator);
+            }
+            return heap;
+        }, stream -> {
+            PriorityQueue<T> heap = new PriorityQueue<>(comparator);
+            stream.forEachOrdered(sliceHeap -> sliceHeap.forEach(element -> offerBounded(heap, element, k, comparator)));
+            return heap;
+        }));
+        result.sort(Collections.reverseOrder(comparator));
+        return result;
+    }
+
+    /**
+     * Add element to min-heap, keeping only <var>k</var> greatest elements in it
+     */
+    private static <T> void offerBounded(PriorityQueue<T> heap, T element, int k, Comparator<? super T> comparator) {
+        if (heap.size() < k) {
+            heap.add(element);
+        } else if (k > 0 && comparator.compare(element, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(element);
+        }
+    }
+
+    /**
+     * Returns element, which would be at position <var>n</var> if <var>values</var> were sorted.
+     * <p>
+     * Parallel selection: elements less than and equal to random pivot are counted in parallel,
+     * then candidates are narrowed to one side of pivot by parallel filter, until they are few enough
+     * to be sorted
+     *
+     * @param threads maximal number of threads
+     * @param values values to choose from
+     * @param n position in sorted order, from 0
+     * @param comparator comparator of elements
+     * @param <T> type of values
+     * @return <var>n</var>-th smallest element
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T> T nthElement(int threads, List<? extends T> values, int n, Comparator<? super T> comparator)
+            throws InterruptedException {
+        if (n < 0 || n >= values.size()) {
+            throw new IndexOutOfBoundsException("Position " + n + " out of " + values.size() + " values");
+        }
+        Random random = new Random(values.size());
+        List<? extends T> candidates = values;
+        while (candidates.size() > SELECTION_SORT_THRESHOLD) {
+            T pivot = candidates.get(random.nextInt(candidates.size()));
+            List<? extends T> current = candidates;
+            int[] counts = this.<int[], int[]>parallelSlices(threads, current.size(), slice -> {
+                int[] sliceCounts = new int[2];
+                for (int i = slice.from; i < slice.to; i++) {
+                    int compared = comparator.compare(current.get(i), pivot);
+                    if (compared < 0) {
+                        sliceCounts[0]++;
+                    } else if (compared == 0) {
+                        sliceCounts[1]++;
+                    }
+                }
+                return sliceCounts;
+            }, stream -> sumHistograms(stream, 2));
+            int less = counts[0];
+            int lessOrEqual = counts[0] + counts[1];
+            if (n < less) {
+                candidates = filter(threads, current, element -> comparator.compare(element, pivot) < 0);
+            } else if (n < lessOrEqual) {
+                return pivot;
+            } else {
+                n -= lessOrEqual;
+                candidates = filter(threads, current, element -> comparator.compare(element, pivot) > 0);
+            }
+        }
+        List<T> sorted = new ArrayList<>(candidates);
+        sorted.sort(comparator);
+        return sorted.get(n);
+    }
+
+    /**
+     * Returns median of <var>values</var>, lower one for even number of values
+     *
+     * @param threads maximal number of threads
+     * @param values values to choose from
+     * @param comparator comparator of elements
+     * @param <T> type of values
+     * @return median element
+     * @throws InterruptedException if calling thread was interrupted
+     * @see #nthElement(int, List, int, Comparator)
+     */
+    public <T> T median(int threads, List<? extends T> values, Comparator<? super T> comparator)
+            throws InterruptedException {
+        return nthElement(threads, values, (values.size() - 1) / 2, comparator);
+    }
+
+    /**
+     * Estimate <var>quantile</var> of <var>values</var>.
+     * <p>
+     * Every thread keeps uniform sample of {@link #QUANTILE_SAMPLE_SIZE} elements of own slice,
+     * samples are merged with weights of their slices. Error of rank is about
+     * <code>1 / sqrt(QUANTILE_SAMPLE_SIZE)</code> of number of values
+     *
+     * @param threads maximal number of threads
+     * @param values values to estimate quantile of
+     * @param quantile quantile from 0 to 1
+     * @param comparator comparator of elements
+     * @param <T> type of values
+     * @return element approximately at position <code>quantile * size</code> in sorted order,
+     * <code>null</code> for empty <var>values</var>
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T> T approximateQuantile(int threads, List<? extends T> values, double quantile,
+                                     Comparator<? super T> comparator) throws InterruptedException {
+        if (!(0 <= quantile && quantile <= 1)) {
+            throw new IllegalArgumentException("Quantile should be in [0, 1]: " + quantile);
+        }
+        List<Sample<T>> samples = parallelSlices(threads, values.size(), slice -> {
+            Random random = new Random(slice.index);
+            List<T> sample = new ArrayList<>();
+            for (int i = slice.from; i < slice.to; i++) {
+                int seen = i - slice.from;
+                if (seen < QUANTILE_SAMPLE_SIZE) {
+                    sample.add(values.get(i));
+                } else {
+                    int replaced = random.nextInt(seen + 1);
+                    if (replaced < QUANTILE_SAMPLE_SIZE) {
+                        sample.set(replaced, values.get(i));
+                    }
+                }
+            }
+            return new Sample<T>(sample, sample.isEmpty() ? 0 : (double) (slice.to - slice.from) / sample.size());
+        }, stream -> stream.collect(Collectors.toList()));
+
+        List<Map.Entry<T, Double>> weighted = new ArrayList<>();
+        for (Sample<T> sample : samples) {
+            for (T element : sample.elements) {
+                weighted.add(new AbstractMap.SimpleEntry<>(element, sample.weight));
+            }
+        }
+        if (weighted.isEmpty()) {
+            return null;
+        }
+        weighted.sort((left, right) -> comparator.compare(left.getKey(), right.getKey()));
+        double rank = quantile * values.size();
+        double seenWeight = 0;
+        for (Map.Entry<T, Double> element : weighted) {
+            seenWeight += element.getValue();
+            if (seenWeight > rank) {
+                return element.getKey();
+            }
+        }
+        return weighted.get(weighted.size() - 1).getKey();
+    }
+
+    /**
+     * Elements sampled from slice, every one stands for <var>weight</var> elements of slice
+     */
+    private static class Sample<T> {
+        private final List<T> elements;
+        private final double weight;
+
+        public Sample(List<T> elements, double weight) {
+            this.elements = elements;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Stable sort of <var>values</var>.
+     * <p>
+     * Every thread sorts own slice, then sorted slices are split by splitters sampled from them
+     * into independent ranges of result, and every thread merges own range of all slices
+     *
+     * @param threads maximal number of threads
+     * @param values values to sort
+     * @param comparator comparator of elements
+     * @param <T> type of values
+     * @return sorted {@link List} of <var>values</var>
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T> List<T> sort(int threads, List<? extends T> values, Comparator<? super T> comparator)
+            throws InterruptedException {
+        Object[] sorted = values.toArray();
+        @SuppressWarnings("unchecked")
+        Comparator<Object> order = (Comparator<Object>) comparator;
+        List<Slice> runs = parallelSlices(threads, sorted.length, slice -> {
+            Arrays.sort(sorted, slice.from, slice.to, order);
+            return slice;
+        }, stream -> stream.collect(Collectors.toList()));
+        if (runs.size() <= 1) {
+            return asList(sorted);
+        }
+
+        List<Object> samples = new ArrayList<>();
+        for (Slice run : runs) {
+            for (int i = 0; i < runs.size(); i++) {
+                samples.add(sorted[run.from + (int) ((long) (run.to - run.from) * i / runs.size())]);
+            }
+        }
+        samples.sort(order);
+        // cuts[j][r] is first element of run r in range j of result
+        int[][] cuts = new int[runs.size() + 1][runs.size()];
+        for (int r = 0; r < runs.size(); r++) {
+            cuts[0][r] = runs.get(r).from;
+            cuts[runs.size()][r] = runs.get(r).to;
+        }
+        for (int j = 1; j < runs.size(); j++) {
+            Object splitter = samples.get(j * runs.size());
+            for (int r = 0; r < runs.size(); r++) {
+                cuts[j][r] = lowerBound(sorted, cuts[j - 1][r], runs.get(r).to, splitter, order);
+            }
+        }
+
+        Object[] result = new Object[sorted.length];
+        parallelSlices(threads, runs.size(), slice -> {
+            for (int j = slice.from; j < slice.to; j++) {
+                int position = 0;
+                for (int r = 0; r < runs.size(); r++) {
+                    position += cuts[j][r] - cuts[0][r];
+                }
+                mergeRuns(sorted, cuts[j], cuts[j + 1], result, position, order);
+            }
+            return null;
+        }, stream -> null);
+        return asList(result);
+    }
+
+    /**
+     * Find first position in sorted range <code>[from, to)</code>, which is not less than <var>key</var>
+     */
+    private static int lowerBound(Object[] array, int from, int to, Object key, Comparator<Object> comparator) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (comparator.compare(array[middle], key) < 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Merge ranges <code>[from[r], to[r])</code> of sorted runs into <var>result</var> starting at <var>position</var>.
+     * Equal elements are taken from earlier run first
+     */
+    private static void mergeRuns(Object[] runs, int[] from, int[] to, Object[] result, int position,
+                                  Comparator<Object> comparator) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>((left, right) -> {
+            int compared = comparator.compare(runs[left[1]], runs[right[1]]);
+            return compared != 0 ? compared : Integer.compare(left[0], right[0]);
+        });
+        for (int r = 0; r < from.length; r++) {
+            if (from[r] < to[r]) {
+                heads.add(new int[]{r, from[r]});
+            }
+        }
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            result[position++] = runs[head[1]++];
+            if (head[1] < to[head[0]]) {
+                heads.add(head);
+            }
+        }
+    }
+
+    /**
+     * Remove repeated elements of <var>values</var>, keeping first occurrences in order.
+     * <p>
+     * Every thread finds first occurrences in own slice and merges them into shared concurrent map,
+     * then elements are filtered in parallel by their first index
+     *
+     * @param threads maximal number of threads
+     * @param values values to remove repeats from
+     * @param <T> type of values
+     * @return {@link List} of distinct elements in order of first occurrence
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T> List<T> distinct(int threads, List<? extends T> values) throws InterruptedException {
+        Map<Object, Integer> firstIndices = new ConcurrentHashMap<>();
+        parallelSlices(threads, values.size(), slice -> {
+            Map<Object, Integer> sliceIndices = new HashMap<>();
+            for (int i = slice.from; i < slice.to; i++) {
+                sliceIndices.putIfAbsent(nullKey(values.get(i)), i);
+            }
+            sliceIndices.forEach((element, index) -> firstIndices.merge(element, index, Math::min));
+            return null;
+        }, stream -> null);
+        return filterIndices(threads, values, i -> firstIndices.get(nullKey(values.get(i))) == i);
+    }
+
+    /**
+     * Replace <code>null</code> by {@link #NULL_KEY} for concurrent maps
+     */
+    private static Object nullKey(Object element) {
+        return element == null ? NULL_KEY : element;
+    }
+
+    /**
+     * Group <var>values</var> by <var>key</var>.
+     * <p>
+     * Every thread groups own slice into maps partitioned by hash of key. Then every thread
+     * takes own partitions and merges them from all slices, so groups are merged concurrently
+     * without locks and keep order of <var>values</var>
+     *
+     * @param threads maximal number of threads
+     * @param values values to group
+     * @param key function computing key of group, shouldn't return <code>null</code>
+     * @param <T> type of values
+     * @param <K> type of keys
+     * @return {@link Map} from key to elements of its group in order of <var>values</var>
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T, K> Map<K, List<T>> groupBy(int threads, List<? extends T> values, Function<? super T, ? extends K> key)
+            throws InterruptedException {
+        int partitions = Math.max(1, threads) * SLICES_PER_THREAD;
+        List<List<Map<K, List<T>>>> slicesGroups = parallelSlices(threads, values.size(), slice -> {
+            List<Map<K, List<T>>> groups = new ArrayList<>(partitions);
+            for (int p = 0; p < partitions; p++) {
+                groups.add(new HashMap<>());
+            }
+            for (int i = slice.from; i < slice.to; i++) {
+                T element = values.get(i);
+                K groupKey = Objects.requireNonNull(key.apply(element), "Key of group is null");
+                groups.get(Math.floorMod(groupKey.hashCode(), partitions))
+                        .computeIfAbsent(groupKey, k -> new ArrayList<>()).add(element);
+            }
+            return groups;
+        }, stream -> stream.collect(Collectors.toList()));
+
+        Map<K, List<T>> result = new ConcurrentHashMap<>();
+        parallelSlices(threads, partitions, slice -> {
+            for (int p = slice.from; p < slice.to; p++) {
+                for (List<Map<K, List<T>>> groups : slicesGroups) {
+                    groups.get(p).forEach((groupKey, group) ->
+                            result.computeIfAbsent(groupKey, k -> new ArrayList<>()).addAll(group));
+                }
+            }
+            return null;
+        }, stream -> null);
+        return result;
+    }
+
+    /**
+     * Start lazy {@link Pipeline} over <var>values</var>. Stages are fused and run in one parallel pass
+     *
+     * @param values source of pipeline
+     * @param <T> type of values
+     * @return {@link Pipeline} without stages
+     */
+    public <T> Pipeline<T> pipeline(List<? extends T> values) {
+        return Pipeline.of(this, values);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> asList(Object[] array) {
+        return (List<T>) Arrays.asList(array);
+    }
+
+    /**
+     * Copy <var>array</var> into resizable list, as callers of {@link #map} and {@link #filter} may modify it
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> arrayList(Object[] array) {
+        return new ArrayList<>((List<T>) Arrays.asList(array));
+    }
+
+    /**
+     * Reduce elements of <var>values</var> without materializing them.
+     * <p>
+     * Calling thread reads up to <var>threadCount</var> batches of {@link #STREAM_BATCH_SIZE} elements,
+     * they are reduced in parallel, and only then next batches are read. So at most
+     * <code>threadCount * STREAM_BATCH_SIZE</code> elements are held at once.
+     *
+     * @param threadCount maximal number of threads
+     * @param values source of elements
+     * @param mapper function computing result of one batch
+     * @param joiner function combining results of batches in order
+     * @param accumulator function appending result of next batches to result of previous ones
+     * @param <T> type of elements
+     * @param <E> type of result
+     * @return joined result
+     * @throws InterruptedException if calling thread was interrupted while waiting for batches
+     */
+    private <T, E> E streamReduce(int threadCount, final Iterator<? extends T> values,
+                                  Function<Stream<? extends T>, ? extends E> mapper,
+                                  Function<Stream<? extends E>, ? extends E> joiner,
+                                  BinaryOperator<E> accumulator) throws InterruptedException {
+        E result = null;
+        boolean first = true;
+        do {
+            List<List<T>> batches = new ArrayList<>();
+            while (batches.size() < threadCount && values.hasNext()) {
+                List<T> batch = new ArrayList<>(STREAM_BATCH_SIZE);
+                while (batch.size() < STREAM_BATCH_SIZE && values.hasNext()) {
+                    batch.add(values.next());
+                }
+                batches.add(batch);
+            }
+            if (batches.isEmpty()) {
+                return joiner.apply(Stream.empty());
+            }
+            E batchesResult = parallelSlices(batches.size(), batches.size(),
+                    slice -> mapper.apply(batches.subList(slice.from, slice.to).stream().flatMap(List::stream)),
+                    joiner);
+            result = first ? batchesResult : accumulator.apply(result, batchesResult);
+            first = false;
+        } while (values.hasNext());
+        return result;
+    }
+
+    /**
+     * Returns maximum of elements of <var>values</var>, which are read in batches
+     *
+     * @param threads maximal number of threads
+     * @param values source of elements
+     * @param comparator comparator of elements
+     * @param <T> type of elements
+     * @return maximal element, <code>null</code> if there are no elements
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T> T maximum(int threads, Iterator<? extends T> values, Comparator<? super T> comparator)
+            throws InterruptedException {
+        Function<Stream<? extends T>, ? extends T> streamMax = stream -> stream.max(comparator).orElse(null);
+        return streamReduce(threads, values, streamMax, streamMax,
+                (left, right) -> comparator.compare(left, right) >= 0 ? left : right);
+    }
+
+    /**
+     * Returns minimum of elements of <var>values</var>, which are read in batches
+     *
+     * @param threads maximal number of threads
+     * @param values source of elements
+     * @param comparator comparator of elements
+     * @param <T> type of elements
+     * @return minimal element, <code>null</code> if there are no elements
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T> T minimum(int threads, Iterator<? extends T> values, Comparator<? super T> comparator)
+            throws InterruptedException {
+        return maximum(threads, values, Collections.reverseOrder(comparator));
+    }
+
+    /**
+     * Filter elements of <var>values</var>, which are read in batches
+     *
+     * @param threads maximal number of threads
+     * @param values source of elements
+     * @param predicate filter predicate
+     * @param <T> type of elements
+     * @return {@link List} of matching elements in order of <var>values</var>
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T> List<T> filter(int threads, Iterator<? extends T> values, Predicate<? super T> predicate)
+            throws InterruptedException {
+        return streamReduce(threads, values,
+                stream -> stream.filter(predicate).collect(Collectors.toList()),
+                stream -> stream.flatMap(List::stream).collect(Collectors.toCollection(ArrayList::new)),
+                IterativeParallelism::appendList);
+    }
+
+    /**
+     * Map elements of <var>values</var>, which are read in batches
+     *
+     * @param threads maximal number of threads
+     * @param values source of elements
+     * @param f mapping function
+     * @param <T> type of elements
+     * @param <U> type of results
+     * @return {@link List} of results in order of <var>values</var>
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T, U> List<U> map(int threads, Iterator<? extends T> values, Function<? super T, ? extends U> f)
+            throws InterruptedException {
+        return streamReduce(threads, values,
+                stream -> stream.map(f).collect(Collectors.toList()),
+                stream -> stream.flatMap(List::stream).collect(Collectors.toCollection(ArrayList::new)),
+                IterativeParallelism::appendList);
+    }
+
+    /**
+     * Map elements of <var>values</var>, which are read in batches, and reduce results by <var>monoid</var>
+     *
+     * @param threads maximal number of threads
+     * @param values source of elements
+     * @param lift mapping function
+     * @param monoid monoid to reduce by
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return reduced value, identity of <var>monoid</var> if there are no elements
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <T, R> R mapReduce(int threads, Iterator<T> values, Function<T, R> lift, Monoid<R> monoid)
+            throws InterruptedException {
+        BinaryOperator<R> operator = monoid.getOperator();
+        return streamReduce(threads, values,
+                stream -> stream.map(lift).reduce(monoid.getIdentity(), operator),
+                stream -> stream.reduce(monoid.getIdentity(), operator::apply, operator),
+                operator);
+    }
+
+    private static <T> List<T> appendList(List<T> left, List<T> right) {
+        left.addAll(right);
+        return left;
+    }
+
+    /**
+     * Reduce <code>int</code> values by <var>monoid</var> without boxing elements
+     *
+     * @param threads maximal number of threads
+     * @param values values to reduce
+     * @param monoid monoid to reduce by
+     * @return reduced value, identity of <var>monoid</var> for empty <var>values</var>
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public int reduce(int threads, int[] values, IntMonoid monoid) throws InterruptedException {
+        return parallelSlices(threads, values.length, slice -> {
+                    int result = monoid.getIdentity();
+                    for (int i = slice.from; i < slice.to; i++) {
+                        result = monoid.getOperator().applyAsInt(result, values[i]);
+                    }
+                    return result;
+                },
+                stream -> stream.mapToInt(Integer::intValue).reduce(monoid.getIdentity(), monoid.getOperator()));
+    }
+
+    /**
+     * Reduce <code>long</code> values by <var>monoid</var> without boxing elements
+     *
+     * @param threads maximal number of threads
+     * @param values values to reduce
+     * @param monoid monoid to reduce by
+     * @return reduced value, identity of <var>monoid</var> for empty <var>values</var>
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public long reduce(int threads, long[] values, LongMonoid monoid) throws InterruptedException {
+        return parallelSlices(threads, values.length, slice -> {
+                    long result = monoid.getIdentity();
+                    for (int i = slice.from; i < slice.to; i++) {
+                        result = monoid.getOperator().applyAsLong(result, values[i]);
+                    }
+                    return result;
+                },
+                stream -> stream.mapToLong(Long::longValue).reduce(monoid.getIdentity(), monoid.getOperator()));
+    }
+
+    /**
+     * Reduce <code>double</code> values by <var>monoid</var> without boxing elements
+     *
+     * @param threads maximal number of threads
+     * @param values values to reduce
+     * @param monoid monoid to reduce by
+     * @return reduced value, identity of <var>monoid</var> for empty <var>values</var>
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public double reduce(int threads, double[] values, DoubleMonoid monoid) throws InterruptedException {
+        return parallelSlices(threads, values.length, slice -> {
+                    double result = monoid.getIdentity();
+                    for (int i = slice.from; i < slice.to; i++) {
+                        result = monoid.getOperator().applyAsDouble(result, values[i]);
+                    }
+                    return result;
+                },
+                stream -> stream.mapToDouble(Double::doubleValue).reduce(monoid.getIdentity(), monoid.getOperator()));
+    }
+
+    /**
+     * Count <code>int</code> values matching <var>predicate</var>
+     *
+     * @param threads maximal number of threads
+     * @param values values to check
+     * @param predicate predicate to count by
+     * @return number of matching values
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public int count(int threads, int[] values, IntPredicate predicate) throws InterruptedException {
+        return parallelSlices(threads, values.length, slice -> {
+                    int result = 0;
+                    for (int i = slice.from; i < slice.to; i++) {
+                        if (predicate.test(values[i])) {
+                            result++;
+                        }
+                    }
+                    return result;
+                },
+                stream -> stream.mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Count <code>long</code> values matching <var>predicate</var>
+     *
+     * @param threads maximal number of threads
+     * @param values values to check
+     * @param predicate predicate to count by
+     * @return number of matching values
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public int count(int threads, long[] values, LongPredicate predicate) throws InterruptedException {
+        return parallelSlices(threads, values.length, slice -> {
+                    int result = 0;
+                    for (int i = slice.from; i < slice.to; i++) {
+                        if (predicate.test(values[i])) {
+                            result++;
+                        }
+                    }
+                    return result;
+                },
+                stream -> stream.mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Count <code>double</code> values matching <var>predicate</var>
+     *
+     * @param threads maximal number of threads
+     * @param values values to check
+     * @param predicate predicate to count by
+     * @return number of matching values
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public int count(int threads, double[] values, DoublePredicate predicate) throws InterruptedException {
+        return parallelSlices(threads, values.length, slice -> {
+                    int result = 0;
+                    for (int i = slice.from; i < slice.to; i++) {
+                        if (predicate.test(values[i])) {
+                            result++;
+                        }
+                    }
+                    return result;
+                },
+                stream -> stream.mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Build histogram of <code>long</code> values.
+     * <p>
+     * Range <code>[min, max)</code> is split into <var>buckets</var> buckets of equal width,
+     * values out of range are not counted
+     *
+     * @param threads maximal number of threads
+     * @param values values to count
+     * @param min lower bound of first bucket, inclusive
+     * @param max upper bound of last bucket, exclusive
+     * @param buckets number of buckets
+     * @return array of counts of values in every bucket
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public int[] histogram(int threads, long[] values, long min, long max, int buckets) throws InterruptedException {
+        checkHistogramRange(min < max, buckets);
+        // differences with min can exceed Long.MAX_VALUE, but they fit into unsigned long
+        double bucketWidth = unsignedToDouble(max - min) / buckets;
+        return this.<int[], int[]>parallelSlices(threads, values.length, slice -> {
+                    int[] result = new int[buckets];
+                    for (int i = slice.from; i < slice.to; i++) {
+                        if (min <= values[i] && values[i] < max) {
+                            result[Math.min(buckets - 1, (int) (unsignedToDouble(values[i] - min) / bucketWidth))]++;
+                        }
+                    }
+                    return result;
+                }, histograms -> sumHistograms(histograms, buckets));
+    }
+
+    /**
+     * Build histogram of <code>int</code> values.
+     * <p>
+     * Range <code>[min, max)</code> is split into <var>buckets</var> buckets of equal width,
+     * values out of range are not counted
+     *
+     * @param threads maximal number of threads
+     * @param values values to count
+     * @param min lower bound of first bucket, inclusive
+     * @param max upper bound of last bucket, exclusive
+     * @param buckets number of buckets
+     * @return array of counts of values in every bucket
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public int[] histogram(int threads, int[] values, int min, int max, int buckets) throws InterruptedException {
+        checkHistogramRange(min < max, buckets);
+        double bucketWidth = ((double) max - min) / buckets;
+        return this.<int[], int[]>parallelSlices(threads, values.length, slice -> {
+                    int[] result = new int[buckets];
+                    for (int i = slice.from; i < slice.to; i++) {
+                        if (min <= values[i] && values[i] < max) {
+                            result[Math.min(buckets - 1, (int) (((long) values[i] - min) / bucketWidth))]++;
+                        }
+                    }
+                    return result;
+                }, histograms -> sumHistograms(histograms, buckets));
+    }
+
+    /**
+     * Build histogram of <code>double</code> values.
+     * <p>
+     * Range <code>[min, max)</code> is split into <var>buckets</var> buckets of equal width,
+     * values out of range are not counted
+     *
+     * @param threads maximal number of threads
+     * @param values values to count
+     * @param min lower bound of first bucket, inclusive
+     * @param max upper bound of last bucket, exclusive
+     * @param buckets number of buckets
+     * @return array of counts of values in every bucket
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public int[] histogram(int threads, double[] values, double min, double max, int buckets)
+            throws InterruptedException {
+        checkHistogramRange(min < max, buckets);
+        double bucketWidth = (max - min) / buckets;
+        return this.<int[], int[]>parallelSlices(threads, values.length, slice -> {
+                    int[] result = new int[buckets];
+                    for (int i = slice.from; i < slice.to; i++) {
+                        if (min <= values[i] && values[i] < max) {
+                            result[Math.min(buckets - 1, (int) ((values[i] - min) / bucketWidth))]++;
+                        }
+                    }
+                    return result;
+                }, histograms -> sumHistograms(histograms, buckets));
+    }
+
+    /**
+     * Convert <var>value</var> treated as unsigned to nearest <code>double</code>
+     */
+    private static double unsignedToDouble(long value) {
+        // lowest bit is lost in rounding of such big values anyway
+        return value >= 0 ? value : (double) (value >>> 1) * 2;
+    }
+
+    private static void checkHistogramRange(boolean correctRange, int buckets) {
+        if (!correctRange || buckets <= 0) {
+            throw new IllegalArgumentException("Histogram needs non-empty range and positive number of buckets");
+        }
+    }
+
+    private static int[] sumHistograms(Stream<? extends int[]> histograms, int buckets) {
+        int[] result = new int[buckets];
+        histograms.forEach(histogram -> {
+            int[] counts = histogram;
+            for (int i = 0; i < buckets; i++) {
+                result[i] += counts[i];
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Shut down own pool of threads, if it was created.
+     * Executor or mapper given to constructor are not closed
+     */
+    @Override
+    public void close() {
+        ExecutorService pool;
+        synchronized (this) {
+            closed = true;
+            pool = ownPool;
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
 }
@@ -0,0 +1,67 @@
+package ru.ifmo.rain.zhuvertcev.concurrent;
+
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Monoid over primitive <code>long</code> values, reductions with it don't box elements
+ */
+public class LongMonoid {
+    private final long identity;
+    private final LongBinaryOperator operator;
+
+    /**
+     * Create monoid with given identity and associative operator
+     *
+     * @param identity identity element of <var>operator</var>
+     * @param operator associative operator
+     */
+    public LongMonoid(final long identity, final LongBinaryOperator operator) {
+        this.identity = identity;
+        this.operator = operator;
+    }
+
+    /**
+     * Monoid of sum
+     *
+     * @return {@link LongMonoid} with identity 0 and operator +
+     */
+    public static LongMonoid sum() {
+        return new LongMonoid(0, Long::sum);
+    }
+
+    /**
+     * Monoid of minimum
+     *
+     * @return {@link LongMonoid} with identity <code>Long.MAX_VALUE</code> and operator min
+     */
+    public static LongMonoid min() {
+        return new LongMonoid(Long.MAX_VALUE, Math::min);
+    }
+
+    /**
+     * Monoid of maximum
+     *
+     * @return {@link LongMonoid} with identity <code>Long.MIN_VALUE</code> and operator max
+     */
+    public static LongMonoid max() {
+        return new LongMonoid(Long.MIN_VALUE, Math::max);
+    }
+
+    /**
+     * Get identity element
+     *
+     * @return identity of this monoid
+     */
+    public long getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Get operator
+     *
+     * @return associative operator of this monoid
+     */
+    public LongBinaryOperator getOperator() {
+        return operator;
+    }
+}
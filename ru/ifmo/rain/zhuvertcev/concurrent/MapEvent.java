@@ -0,0 +1,23 @@
+package ru.ifmo.rain.zhuvertcev.mapper;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of one call of {@link ParallelMapperImpl}, lasting from submitting tasks to completion
+ */
+@Name("ru.ifmo.rain.zhuvertcev.mapper.Map")
+@Label("Parallel Map")
+@Category("ParallelMapper")
+class MapEvent extends Event {
+    @Label("Elements")
+    int elements;
+
+    @Label("Chunks")
+    int chunks;
+
+    @Label("Failed")
+    boolean failed;
+}
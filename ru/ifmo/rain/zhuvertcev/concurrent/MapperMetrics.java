@@ -0,0 +1,147 @@
+package ru.ifmo.rain.zhuvertcev.mapper;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of {@link ParallelMapperImpl} metrics.
+ * <p>
+ * Latency histograms have bucket per power of two: bucket <var>i</var> counts latencies
+ * in range <code>[2<sup>i-1</sup>, 2<sup>i</sup>)</code> nanoseconds, bucket 0 counts zero latencies.
+ * Idle time of worker includes every wait for task, also ended by keep-alive timeout or interrupt.
+ * <p>
+ * Contention on locks of task queue and number of wakeups of waiting workers are not collected:
+ * queue doesn't expose them, and counting them would add work on every take of task
+ */
+public class MapperMetrics {
+    private final long submittedTasks;
+    private final long completedTasks;
+    private final long failedElements;
+    private final long queueLength;
+    private final long[] waitLatencyHistogram;
+    private final long[] runLatencyHistogram;
+    private final long[] workerBusyNanos;
+    private final long[] workerIdleNanos;
+
+    MapperMetrics(long submittedTasks, long completedTasks, long failedElements, long queueLength,
+                  long[] waitLatencyHistogram, long[] runLatencyHistogram,
+                  long[] workerBusyNanos, long[] workerIdleNanos) {
+        this.submittedTasks = submittedTasks;
+        this.completedTasks = completedTasks;
+        this.failedElements = failedElements;
+        this.queueLength = queueLength;
+        this.waitLatencyHistogram = waitLatencyHistogram;
+        this.runLatencyHistogram = runLatencyHistogram;
+        this.workerBusyNanos = workerBusyNanos;
+        this.workerIdleNanos = workerIdleNanos;
+    }
+
+    /**
+     * Get number of tasks added to queue
+     *
+     * @return number of submitted tasks
+     */
+    public long getSubmittedTasks() {
+        return submittedTasks;
+    }
+
+    /**
+     * Get number of tasks, which have finished running
+     *
+     * @return number of completed tasks
+     */
+    public long getCompletedTasks() {
+        return completedTasks;
+    }
+
+    /**
+     * Get number of elements, for which mapping function has thrown exception
+     *
+     * @return number of failed elements
+     */
+    public long getFailedElements() {
+        return failedElements;
+    }
+
+    /**
+     * Get number of tasks waiting in queue
+     *
+     * @return queue length
+     */
+    public long getQueueLength() {
+        return queueLength;
+    }
+
+    /**
+     * Get histogram of time between adding task and start of its running
+     *
+     * @return counts of latencies by buckets
+     */
+    public long[] getWaitLatencyHistogram() {
+        return waitLatencyHistogram.clone();
+    }
+
+    /**
+     * Get histogram of time of running tasks
+     *
+     * @return counts of latencies by buckets
+     */
+    public long[] getRunLatencyHistogram() {
+        return runLatencyHistogram.clone();
+    }
+
+    /**
+     * Get time every worker spent running tasks
+     *
+     * @return nanoseconds of running tasks by workers
+     */
+    public long[] getWorkerBusyNanos() {
+        return workerBusyNanos.clone();
+    }
+
+    /**
+     * Get time every worker spent waiting for tasks
+     *
+     * @return nanoseconds of waiting by workers
+     */
+    public long[] getWorkerIdleNanos() {
+        return workerIdleNanos.clone();
+    }
+
+    /**
+     * Get part of time worker spent running tasks
+     *
+     * @param worker index of worker
+     * @return utilization from 0 to 1
+     */
+    public double getWorkerUtilization(int worker) {
+        long total = workerBusyNanos[worker] + workerIdleNanos[worker];
+        return total == 0 ? 0 : (double) workerBusyNanos[worker] / total;
+    }
+
+    /**
+     * Estimate percentile of latency by histogram
+     *
+     * @param histogram latency histogram of this snapshot
+     * @param percentile percentile from 0 to 100
+     * @return upper bound of bucket with given percentile in nanoseconds
+     */
+    public static long percentile(long[] histogram, double percentile) {
+        long total = Arrays.stream(histogram).sum();
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen > 0 && seen >= total * percentile / 100) {
+                return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MapperMetrics{submitted=" + submittedTasks + ", completed=" + completedTasks
+                + ", failedElements=" + failedElements + ", queueLength=" + queueLength
+                + ", waitP99=" + percentile(waitLatencyHistogram, 99) + "ns"
+                + ", runP99=" + percentile(runLatencyHistogram, 99) + "ns}";
+    }
+}
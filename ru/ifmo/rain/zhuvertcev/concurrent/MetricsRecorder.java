@@ -0,0 +1,100 @@
+package ru.ifmo.rain.zhuvertcev.mapper;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collector of {@link ParallelMapperImpl} metrics. Counters are striped and
+ * per-worker times have single writer, so recording takes no locks
+ */
+class MetricsRecorder {
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    private final LongAdder submittedTasks = new LongAdder();
+    private final LongAdder drainedTasks = new LongAdder();
+    private final LongAdder startedTasks = new LongAdder();
+    private final LongAdder completedTasks = new LongAdder();
+    private final LongAdder failedElements = new LongAdder();
+    private final LongAdder[] waitLatency = newHistogram();
+    private final LongAdder[] runLatency = newHistogram();
+    private final AtomicLongArray workerBusyNanos;
+    private final AtomicLongArray workerIdleNanos;
+
+    MetricsRecorder(int workers) {
+        workerBusyNanos = new AtomicLongArray(workers);
+        workerIdleNanos = new AtomicLongArray(workers);
+    }
+
+    private static LongAdder[] newHistogram() {
+        LongAdder[] histogram = new LongAdder[BUCKETS];
+        Arrays.setAll(histogram, i -> new LongAdder());
+        return histogram;
+    }
+
+    private static void record(LongAdder[] histogram, long nanos) {
+        histogram[Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, nanos))].increment();
+    }
+
+    private static long[] sum(LongAdder[] histogram) {
+        return Arrays.stream(histogram).mapToLong(LongAdder::sum).toArray();
+    }
+
+    /**
+     * Wrap task to record its wait and run latencies. Task is counted as submitted
+     * only by {@link #taskSubmitted()}, as queue can reject it
+     *
+     * @param task task to be added to queue
+     * @return task recording metrics
+     */
+    Runnable timed(Runnable task) {
+        long submitted = System.nanoTime();
+        return () -> {
+            long started = System.nanoTime();
+            startedTasks.increment();
+            record(waitLatency, started - submitted);
+            try {
+                task.run();
+            } finally {
+                record(runLatency, System.nanoTime() - started);
+                completedTasks.increment();
+            }
+        };
+    }
+
+    void taskSubmitted() {
+        submittedTasks.increment();
+    }
+
+    /**
+     * Record tasks removed from queue by cancellation, they will never start
+     *
+     * @param tasks number of removed tasks
+     */
+    void tasksDrained(int tasks) {
+        drainedTasks.add(tasks);
+    }
+
+    void elementFailed() {
+        failedElements.increment();
+    }
+
+    void workerIdle(int worker, long nanos) {
+        workerIdleNanos.lazySet(worker, workerIdleNanos.get(worker) + nanos);
+    }
+
+    void workerBusy(int worker, long nanos) {
+        workerBusyNanos.lazySet(worker, workerBusyNanos.get(worker) + nanos);
+    }
+
+    MapperMetrics snapshot() {
+        long[] busy = new long[workerBusyNanos.length()];
+        long[] idle = new long[workerIdleNanos.length()];
+        Arrays.setAll(busy, workerBusyNanos::get);
+        Arrays.setAll(idle, workerIdleNanos::get);
+        long dequeued = startedTasks.sum() + drainedTasks.sum();
+        long submitted = submittedTasks.sum();
+        return new MapperMetrics(submitted, completedTasks.sum(), failedElements.sum(), Math.max(0, submitted - dequeued),
+                sum(waitLatency), sum(runLatency), busy, idle);
+    }
+}
@@ -3,90 +3,965 @@ package ru.ifmo.rain.zhuvertcev.mapper;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
 
 public class ParallelMapperImpl implements ParallelMapper {
+    /**
+     * How many chunks per worker adaptive splitting aims for, so that
+     * workers finishing early can pick up the rest
+     */
+    private static final int CHUNKS_PER_WORKER = 4;
+
     private static class ResultCollector<R> {
-        private final List<R> result;
-        private int addCounter;
-        private final int needSize;
+        private final ObjIntConsumer<R> sink;
+        private final FailurePolicy failurePolicy;
+        private final AtomicInteger remainingChunks;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private volatile boolean cancelled;
 
-        public ResultCollector(int needSize) {
-            result = new LinkedList<>(Collections.nCopies(needSize, null));
-            addCounter = 0;
-            this.needSize = needSize;
+        public ResultCollector(int chunksCount, ObjIntConsumer<R> sink, FailurePolicy failurePolicy) {
+            this.sink = sink;
+            this.failurePolicy = failurePolicy;
+            remainingChunks = new AtomicInteger(chunksCount);
+            if (chunksCount == 0) {
+                completion.complete(null);
+            }
         }
 
         public void set(final int pos, R element) {
-            result.set(pos, element);
-            synchronized (this) {
-                addCounter++;
-                if (addCounter == needSize) {
-                    notify();
+            sink.accept(element, pos);
+        }
+
+        /**
+         * Check that elements should not be mapped anymore
+         *
+         * @return <code>true</code> if call already failed fast or was cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled || failurePolicy == FailurePolicy.FAIL_FAST && failure.get() != null;
+        }
+
+        /**
+         * Fail call, because not all its chunks were accepted, whatever the failure policy is
+         *
+         * @param e reason of rejection
+         */
+        public void reject(RejectedExecutionException e) {
+            cancelled = true;
+            failure.compareAndSet(null, e);
+            completion.completeExceptionally(failure.get());
+        }
+
+        /**
+         * Stop mapping elements, because call was cancelled
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public void fail(Throwable e) {
+            if (!failure.compareAndSet(null, e)) {
+                if (failure.get() != e) {
+                    failure.get().addSuppressed(e);
                 }
+            } else if (failurePolicy == FailurePolicy.FAIL_FAST) {
+                completion.completeExceptionally(e);
             }
         }
 
-        synchronized public List<R> getResults() throws InterruptedException {
-            while (addCounter != needSize) {
-                wait();
+        public void chunkDone() {
+            if (remainingChunks.decrementAndGet() == 0) {
+                if (failure.get() == null) {
+                    completion.complete(null);
+                } else {
+                    completion.completeExceptionally(failure.get());
+                }
             }
-            return result;
+        }
+
+        public CompletableFuture<Void> getCompletion() {
+            return completion;
         }
     }
 
-    private final List<Thread> threads;
-    private final Deque<Runnable> tasks;
+    /**
+     * Tasks of one call
+     */
+    private interface TaskGroup extends Executor {
+        /**
+         * Remove tasks of group, which are not started yet
+         *
+         * @return number of removed tasks
+         */
+        int drain();
 
-    public ParallelMapperImpl(final int threadsNumber) {
-        threads = new ArrayList<>();
-        tasks = new ArrayDeque<>();
-        for (int i = 0; i < threadsNumber; i++) {
-            threads.add(new Thread(() -> {
-                try {
-                    while (!Thread.interrupted()) {
-                        doTask();
+        /**
+         * Create group, which can't remove its tasks from <var>executor</var>
+         *
+         * @param executor executor running tasks
+         * @return {@link TaskGroup} adding tasks to <var>executor</var>
+         */
+        static TaskGroup of(Executor executor) {
+            return new TaskGroup() {
+                @Override
+                public void execute(Runnable task) {
+                    executor.execute(task);
+                }
+
+                @Override
+                public int drain() {
+                    return 0;
+                }
+            };
+        }
+    }
+
+    /**
+     * Source of tasks for worker threads
+     */
+    private interface TaskQueue {
+        /**
+         * Create group for tasks of one call. Adding task to group wakes up worker for it
+         *
+         * @return {@link TaskGroup} adding tasks to this queue
+         */
+        TaskGroup newGroup();
+
+        /**
+         * Take next task, waiting while there are none
+         *
+         * @param worker index of worker thread, which takes task
+         * @param timeoutNanos maximal time to wait
+         * @return task to run or <code>null</code> if there were no tasks during <var>timeoutNanos</var>
+         * @throws InterruptedException if worker was interrupted while waiting
+         */
+        Runnable take(int worker, long timeoutNanos) throws InterruptedException;
+
+        /**
+         * Check that there are no tasks in queue
+         *
+         * @return <code>true</code> if queue is empty
+         */
+        boolean isEmpty();
+    }
+
+    /**
+     * Queue shared by all workers, guarded by its monitor.
+     * <p>
+     * Every call has own group of tasks, groups with tasks take turns round-robin,
+     * so big call doesn't delay small calls submitted after it
+     */
+    private static class FairTaskQueue implements TaskQueue {
+        private final Deque<QueuedGroup> groups = new ArrayDeque<>();
+
+        private class QueuedGroup implements TaskGroup {
+            private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+            @Override
+            public void execute(Runnable task) {
+                synchronized (groups) {
+                    if (tasks.isEmpty()) {
+                        groups.add(this);
                     }
-                } catch (InterruptedException ignored) {}
-                finally {
-                    Thread.currentThread().interrupt();
+                    tasks.add(task);
+                    groups.notify();
                 }
-            }));
-            threads.get(i).start();
+            }
+
+            @Override
+            public int drain() {
+                synchronized (groups) {
+                    int drained = tasks.size();
+                    if (drained > 0) {
+                        tasks.clear();
+                        groups.remove(this);
+                    }
+                    return drained;
+                }
+            }
+        }
+
+        @Override
+        public TaskGroup newGroup() {
+            return new QueuedGroup();
+        }
+
+        @Override
+        public Runnable take(int worker, long timeoutNanos) throws InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            synchronized (groups) {
+                while (groups.isEmpty()) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        return null;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(groups, left);
+                }
+                QueuedGroup group = groups.poll();
+                Runnable task = group.tasks.poll();
+                if (!group.tasks.isEmpty()) {
+                    groups.add(group);
+                }
+                return task;
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            synchronized (groups) {
+                return groups.isEmpty();
+            }
         }
     }
 
-    private void doTask() throws InterruptedException {
-        Runnable task;
-        synchronized (tasks) {
-            while (tasks.isEmpty()) {
-                tasks.wait();
+    /**
+     * Deque per worker. Worker takes tasks from head of own deque, when it is empty
+     * steals from tail of others. Idle workers are parked and woken one per added task.
+     * Tasks are not grouped by calls, this queue is for throughput rather than fairness,
+     * so tasks of cancelled call are not removed, they finish at once when taken.
+     */
+    private static class StealingTaskQueue implements TaskQueue {
+        private final List<Deque<Runnable>> deques;
+        private final AtomicInteger nextDeque = new AtomicInteger();
+        private final Queue<Thread> parked = new ConcurrentLinkedQueue<>();
+
+        public StealingTaskQueue(final int workers) {
+            deques = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                deques.add(new ConcurrentLinkedDeque<>());
             }
-            task = tasks.poll();
-            tasks.notifyAll();;
         }
-        task.run();
+
+        @Override
+        public TaskGroup newGroup() {
+            return TaskGroup.of(this::add);
+        }
+
+        private void add(Runnable task) {
+            deques.get(Math.floorMod(nextDeque.getAndIncrement(), deques.size())).addLast(task);
+            Thread idle = parked.poll();
+            if (idle != null) {
+                LockSupport.unpark(idle);
+            }
+        }
+
+        private Runnable poll(int worker) {
+            Runnable task = deques.get(worker).pollFirst();
+            for (int i = 1; task == null && i < deques.size(); i++) {
+                task = deques.get((worker + i) % deques.size()).pollLast();
+            }
+            return task;
+        }
+
+        @Override
+        public Runnable take(int worker, long timeoutNanos) throws InterruptedException {
+            Thread current = Thread.currentThread();
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (true) {
+                Runnable task = poll(worker);
+                if (task != null) {
+                    return task;
+                }
+                parked.add(current);
+                // task could be added before we became visible to add()
+                task = poll(worker);
+                if (task != null) {
+                    parked.remove(current);
+                    return task;
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    parked.remove(current);
+                    return null;
+                }
+                LockSupport.parkNanos(this, left);
+                parked.remove(current);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return deques.stream().allMatch(Deque::isEmpty);
+        }
+    }
+
+    private final Set<Thread> threads;
+    private final TaskQueue tasks;
+    private final Executor executor;
+    private final int parallelism;
+    private final Semaphore queueCapacity;
+    private final RejectionPolicy rejectionPolicy;
+    private final MetricsRecorder metrics;
+    private final Builder settings;
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+    private final Queue<Integer> freeWorkers = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    /**
+     * Create mapper with given number of workers sharing one task queue
+     *
+     * @param threadsNumber number of worker threads
+     */
+    public ParallelMapperImpl(final int threadsNumber) {
+        this(builder().threads(threadsNumber));
+    }
+
+    /**
+     * Create mapper with given number of workers
+     *
+     * @param threadsNumber number of worker threads
+     * @param workStealing if <code>true</code> every worker has own deque and steals tasks
+     *                     from others when it runs dry, else all workers share one queue
+     */
+    public ParallelMapperImpl(final int threadsNumber, final boolean workStealing) {
+        this(builder().threads(threadsNumber).workStealing(workStealing));
+    }
+
+    private ParallelMapperImpl(final Builder settings) {
+        Builder builder = settings.copy();
+        if (builder.maxThreads <= 0 || builder.minThreads < 0 || builder.minThreads > builder.maxThreads) {
+            throw new IllegalArgumentException("Wrong pool size: from " + builder.minThreads
+                    + " to " + builder.maxThreads);
+        }
+        this.settings = builder;
+        threads = ConcurrentHashMap.newKeySet();
+        tasks = builder.workStealing ? new StealingTaskQueue(builder.maxThreads) : new FairTaskQueue();
+        executor = null;
+        parallelism = builder.maxThreads;
+        queueCapacity = builder.queueCapacity > 0 ? new Semaphore(builder.queueCapacity) : null;
+        rejectionPolicy = builder.rejectionPolicy;
+        metrics = builder.metrics ? new MetricsRecorder(builder.maxThreads) : null;
+        for (int i = 0; i < builder.maxThreads; i++) {
+            freeWorkers.add(i);
+        }
+        try {
+            for (int i = 0; i < builder.minThreads; i++) {
+                tryStartWorker();
+            }
+        } catch (RuntimeException | Error e) {
+            // nobody could close mapper, which wasn't constructed
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start new worker, if pool hasn't reached maximal size.
+     * <p>
+     * If thread couldn't be created or started, reserved place and index of worker are released
+     *
+     * @throws IllegalStateException if thread factory returned <code>null</code>
+     */
+    private void tryStartWorker() {
+        int live;
+        do {
+            live = liveWorkers.get();
+            if (live >= settings.maxThreads || closed) {
+                return;
+            }
+        } while (!liveWorkers.compareAndSet(live, live + 1));
+        Integer free;
+        // retired worker may not have returned its index yet
+        while ((free = freeWorkers.poll()) == null) {
+            Thread.onSpinWait();
+        }
+        final int worker = free;
+        Thread thread = null;
+        try {
+            thread = settings.threadFactory.newThread(() -> runWorker(worker));
+            if (thread == null) {
+                throw new IllegalStateException("Thread factory returned null instead of worker thread");
+            }
+            if (settings.namePrefix != null) {
+                thread.setName(settings.namePrefix + "-" + worker);
+            }
+            if (settings.daemon != null) {
+                thread.setDaemon(settings.daemon);
+            }
+            if (settings.priority != null) {
+                thread.setPriority(settings.priority);
+            }
+            if (settings.uncaughtExceptionHandler != null) {
+                thread.setUncaughtExceptionHandler(settings.uncaughtExceptionHandler);
+            }
+            threads.add(thread);
+            thread.start();
+        } catch (RuntimeException | Error e) {
+            if (thread != null) {
+                threads.remove(thread);
+            }
+            freeWorkers.add(worker);
+            liveWorkers.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Retire worker, which was idle for keep-alive time, if pool is above minimal size
+     *
+     * @return <code>true</code> if worker should stop
+     */
+    private boolean tryRetireWorker() {
+        int live = liveWorkers.get();
+        return live > settings.minThreads && liveWorkers.compareAndSet(live, live - 1);
     }
 
-    private void addTask(Runnable task) {
-        synchronized (tasks) {
-            tasks.add(task);
-            tasks.notifyAll();
+    /**
+     * Run tasks until mapper is closed or worker retires
+     *
+     * @param worker index of worker
+     */
+    private void runWorker(final int worker) {
+        boolean retired = false;
+        try {
+            if (settings.affinity != null) {
+                try {
+                    settings.affinity.accept(worker);
+                } catch (RuntimeException e) {
+                    // worker runs unpinned rather than dies
+                    Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, e);
+                }
+            }
+            // only close() stops worker, interrupt could be left by mapping function as well
+            while (!closed) {
+                long waitStart = metrics == null ? 0 : System.nanoTime();
+                Runnable task = null;
+                boolean interrupted = false;
+                idleWorkers.incrementAndGet();
+                try {
+                    task = tasks.take(worker, settings.keepAliveNanos);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } finally {
+                    idleWorkers.decrementAndGet();
+                }
+                // waiting counts as idle time whether it ended with task, timeout or interrupt
+                long runStart = metrics == null ? 0 : System.nanoTime();
+                if (metrics != null) {
+                    metrics.workerIdle(worker, runStart - waitStart);
+                }
+                if (interrupted) {
+                    continue;
+                }
+                if (task == null) {
+                    retired = tryRetireWorker();
+                    if (retired) {
+                        break;
+                    }
+                    continue;
+                }
+                if (!tasks.isEmpty()) {
+                    growIfBusy();
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException ignored) {
+                    // failure belongs to task, worker keeps serving others
+                }
+                // mapping function could leave interrupt flag set, closed flag is checked instead
+                Thread.interrupted();
+                if (metrics != null) {
+                    metrics.workerBusy(worker, System.nanoTime() - runStart);
+                }
+            }
+        } finally {
+            threads.remove(Thread.currentThread());
+            freeWorkers.add(worker);
+            if (!retired) {
+                liveWorkers.decrementAndGet();
+            }
+            // task could be added while this worker was counted as idle, or worker died of error
+            if (!tasks.isEmpty()) {
+                tryStartWorker();
+            }
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Get current number of worker threads
+     *
+     * @return number of workers
+     */
+    public int getPoolSize() {
+        return liveWorkers.get();
+    }
+
+    /**
+     * Create builder of mapper with own worker threads
+     *
+     * @return {@link Builder} with default settings
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Create mapper without own workers, which runs every task on new thread of
+     * <var>executor</var>
+     *
+     * @param executor executor starting thread for every task
+     */
+    public ParallelMapperImpl(final ThreadPerTaskExecutor executor) {
+        threads = Collections.emptySet();
+        settings = null;
+        tasks = null;
+        this.executor = executor;
+        parallelism = executor.getMaxConcurrency();
+        queueCapacity = null;
+        rejectionPolicy = RejectionPolicy.BLOCK;
+        metrics = null;
+    }
+
+    /**
+     * Create mapper running every task on new virtual thread. Suits functions blocking on I/O,
+     * which would starve fixed pool of workers.
+     *
+     * @param maxConcurrency maximal number of simultaneously running tasks
+     * @return {@link ParallelMapperImpl} on virtual threads
+     */
+    public static ParallelMapperImpl virtual(final int maxConcurrency) {
+        return new ParallelMapperImpl(ThreadPerTaskExecutor.virtual(maxConcurrency));
+    }
+
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
-        ResultCollector<R> resultCollector = new ResultCollector<>(args.size());
-        for (int i = 0; i < args.size(); i++) {
-            final int pos = i;
-            addTask(() -> resultCollector.set(pos, f.apply(args.get(pos))));
+        return map(f, args, defaultGrainSize(args.size()));
+    }
+
+    /**
+     * Map <var>args</var> in chunks of <var>grainSize</var> consecutive elements, each chunk is one task
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param grainSize number of elements in one task, should be positive
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link List} of results in order of <var>args</var>
+     * @throws InterruptedException if calling thread was interrupted while waiting for results
+     */
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args, final int grainSize)
+            throws InterruptedException {
+        return getResults(this.<T, R>mapAsync(f, args, grainSize));
+    }
+
+    /**
+     * Map <var>args</var> without blocking calling thread.
+     * <p>
+     * Only with bounded queue and {@link RejectionPolicy#BLOCK} calling thread waits for space in queue.
+     * If it is interrupted meanwhile, call is cancelled and interrupt flag is kept
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link CompletableFuture} of results in order of <var>args</var>
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args) {
+        return mapAsync(f, args, defaultGrainSize(args.size()));
+    }
+
+    /**
+     * Map <var>args</var> in chunks of <var>grainSize</var> consecutive elements without blocking
+     * calling thread
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param grainSize number of elements in one task, should be positive
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link CompletableFuture} of results in order of <var>args</var>
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                      final int grainSize) {
+        return mapAsync(f, args, grainSize, FailurePolicy.FAIL_FAST);
+    }
+
+    /**
+     * Map <var>args</var> without blocking calling thread, handling exceptions of <var>f</var>
+     * by <var>failurePolicy</var>
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param failurePolicy what to do with other elements, when <var>f</var> throws exception
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link CompletableFuture} of results in order of <var>args</var>,
+     * completed exceptionally if <var>f</var> has thrown exception
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                      FailurePolicy failurePolicy) {
+        return mapAsync(f, args, defaultGrainSize(args.size()), failurePolicy);
+    }
+
+    /**
+     * Map <var>args</var> without blocking calling thread, until <var>token</var> is cancelled.
+     * <p>
+     * Cancellation of <var>token</var> or of returned future removes tasks of call, which are not started yet,
+     * from queue, and running tasks stop before next element. Mapping function can check <var>token</var>
+     * itself to stop earlier
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param token token cancelling call
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link CompletableFuture} of results in order of <var>args</var>,
+     * cancelled when <var>token</var> is cancelled
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                      CancellationToken token) {
+        return mapAsync(f, args, defaultGrainSize(args.size()), FailurePolicy.FAIL_FAST, token);
+    }
+
+    private <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                       final int grainSize, FailurePolicy failurePolicy) {
+        return mapAsync(f, args, grainSize, failurePolicy, null);
+    }
+
+    private <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                       final int grainSize, FailurePolicy failurePolicy,
+                                                       CancellationToken token) {
+        Object[] result = new Object[args.size()];
+        CompletableFuture<Void> completion = this.<T, R>submit(f, args, grainSize, failurePolicy,
+                (element, pos) -> result[pos] = element, token);
+        // cancellation of call is passed as is, so returned future is cancelled too
+        CompletableFuture<List<R>> results = new CompletableFuture<>();
+        completion.whenComplete((ignored, e) -> {
+            if (completion.isCancelled()) {
+                results.cancel(false);
+            } else if (e != null) {
+                results.completeExceptionally(e);
+            } else {
+                results.complete(asList(result));
+            }
+        });
+        results.whenComplete((ignored, e) -> {
+            if (results.isCancelled()) {
+                completion.cancel(false);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Map <var>args</var> until <var>token</var> is cancelled
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param token token cancelling call
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link List} of results in order of <var>args</var>
+     * @throws InterruptedException if calling thread was interrupted while waiting for results
+     * @throws CancellationException if <var>token</var> was cancelled before all elements were mapped
+     * @see #mapAsync(Function, List, CancellationToken)
+     */
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args,
+                              CancellationToken token) throws InterruptedException {
+        return getResults(mapAsync(f, args, token));
+    }
+
+    /**
+     * Map <var>args</var>, giving up after <var>timeout</var>.
+     * <p>
+     * On timeout tasks of call, which are not started yet, are removed from queue,
+     * and running tasks stop before next element
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param timeout maximal time to wait for results
+     * @param unit unit of <var>timeout</var>
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link List} of results in order of <var>args</var>
+     * @throws InterruptedException if calling thread was interrupted while waiting for results
+     * @throws TimeoutException if results were not ready in <var>timeout</var>
+     */
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args,
+                              long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        CompletableFuture<List<R>> results = mapAsync(f, args);
+        try {
+            checkInterrupted();
+            return results.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (TimeoutException | InterruptedException e) {
+            results.cancel(false);
+            throw e;
         }
-        return resultCollector.getResults();
+    }
+
+    /**
+     * Map <var>args</var> handling exceptions of <var>f</var> by <var>failurePolicy</var>.
+     * <p>
+     * Exception of <var>f</var> is rethrown to calling thread, worker threads keep running
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param failurePolicy what to do with other elements, when <var>f</var> throws exception
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link List} of results in order of <var>args</var>
+     * @throws InterruptedException if calling thread was interrupted while waiting for results
+     */
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args,
+                              FailurePolicy failurePolicy) throws InterruptedException {
+        return getResults(mapAsync(f, args, failurePolicy));
+    }
+
+    /**
+     * Wait for results of call and rethrow exception of mapping function.
+     * If calling thread is interrupted, call is cancelled, as nobody will read its results
+     *
+     * @param results future of results
+     * @param <R> type of results
+     * @return {@link List} of results
+     * @throws InterruptedException if calling thread was interrupted while waiting for results
+     */
+    private static <R> List<R> getResults(CompletableFuture<List<R>> results) throws InterruptedException {
+        try {
+            checkInterrupted();
+            return results.get();
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            results.cancel(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Throw exception if calling thread was interrupted, while call was submitted.
+     * Completed future doesn't check interrupt flag itself
+     *
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Map <var>args</var> passing every result to <var>consumer</var> as soon as it is computed.
+     * <p>
+     * Results come in order of completion, <var>consumer</var> is called from worker threads
+     * and should be thread-safe
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param consumer receiver of position of element in <var>args</var> and result for it
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link CompletableFuture} completed when all results are passed to <var>consumer</var>
+     */
+    public <T, R> CompletableFuture<Void> mapUnordered(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                       BiConsumer<Integer, ? super R> consumer) {
+        return this.<T, R>submit(f, args, defaultGrainSize(args.size()), FailurePolicy.FAIL_FAST,
+                (element, pos) -> consumer.accept(pos, element), null);
+    }
+
+    /**
+     * Split <var>args</var> into chunks and add task for every chunk
+     *
+     * @param f function to apply
+     * @param args elements to map
+     * @param grainSize number of elements in one task, should be positive
+     * @param failurePolicy what to do with other elements, when <var>f</var> throws exception
+     * @param sink receiver of result and position of element in <var>args</var>
+     * @param token token cancelling call, may be <code>null</code>
+     * @param <T> type of elements
+     * @param <R> type of results
+     * @return {@link CompletableFuture} completed when all chunks are done,
+     * cancelling it cancels the call. It is cancelled at once, if calling thread
+     * was interrupted while waiting for space in queue
+     */
+    private <T, R> CompletableFuture<Void> submit(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                  final int grainSize, FailurePolicy failurePolicy,
+                                                  ObjIntConsumer<R> sink, CancellationToken token) {
+        if (grainSize <= 0) {
+            throw new IllegalArgumentException("Grain size should be positive: " + grainSize);
+        }
+        int chunksCount = args.size() / grainSize + (args.size() % grainSize == 0 ? 0 : 1);
+        ResultCollector<R> resultCollector = new ResultCollector<>(chunksCount, sink, failurePolicy);
+        TaskGroup callExecutor = tasks == null ? TaskGroup.of(executor) : tasks.newGroup();
+        CompletableFuture<Void> completion = resultCollector.getCompletion();
+        completion.whenComplete((ignored, e) -> {
+            if (completion.isCancelled()) {
+                resultCollector.cancel();
+                int drained = callExecutor.drain();
+                if (metrics != null) {
+                    metrics.tasksDrained(drained);
+                }
+                if (queueCapacity != null) {
+                    // drained tasks will never release their permits themselves
+                    queueCapacity.release(drained);
+                }
+            }
+        });
+        if (token != null) {
+            Runnable unregister = token.onCancel(() -> completion.cancel(false));
+            completion.whenComplete((ignored, e) -> unregister.run());
+        }
+        if (metrics != null) {
+            // loading of event class starts JFR, which takes long, so it is touched only with metrics
+            MapEvent event = new MapEvent();
+            if (event.isEnabled()) {
+                event.begin();
+                event.elements = args.size();
+                event.chunks = chunksCount;
+                resultCollector.getCompletion().whenComplete((ignored, e) -> {
+                    event.failed = e != null;
+                    event.commit();
+                });
+            }
+        }
+        for (int from = 0, to; from < args.size() && !resultCollector.isCancelled(); from = to) {
+            to = from + Math.min(grainSize, args.size() - from);
+            final int chunkFrom = from;
+            final int chunkTo = to;
+            Runnable chunk = () -> {
+                for (int pos = chunkFrom; pos < chunkTo && !resultCollector.isCancelled(); pos++) {
+                    try {
+                        resultCollector.set(pos, f.apply(args.get(pos)));
+                    } catch (RuntimeException | Error e) {
+                        if (metrics != null) {
+                            metrics.elementFailed();
+                        }
+                        resultCollector.fail(e);
+                    }
+                }
+                resultCollector.chunkDone();
+            };
+            try {
+                addTask(callExecutor, metrics == null ? chunk : metrics.timed(chunk));
+                if (metrics != null) {
+                    metrics.taskSubmitted();
+                }
+            } catch (RejectedExecutionException e) {
+                resultCollector.reject(e);
+                break;
+            } catch (InterruptedException e) {
+                // caller is not always able to throw, so it gets flag back
+                Thread.currentThread().interrupt();
+                completion.cancel(false);
+                break;
+            }
+        }
+        return completion;
+    }
+
+    /**
+     * Add task to executor of call, respecting bound of task queue
+     *
+     * @param callExecutor executor for tasks of call
+     * @param task task to add
+     * @throws RejectedExecutionException if queue is full and rejection policy is {@link RejectionPolicy#ABORT}
+     * @throws InterruptedException if calling thread was interrupted while waiting for space in queue
+     */
+    private void addTask(Executor callExecutor, Runnable task) throws InterruptedException {
+        if (queueCapacity == null) {
+            callExecutor.execute(task);
+            growIfBusy();
+            return;
+        }
+        if (rejectionPolicy == RejectionPolicy.BLOCK) {
+            queueCapacity.acquire();
+        } else if (!queueCapacity.tryAcquire()) {
+            if (rejectionPolicy == RejectionPolicy.ABORT) {
+                throw new RejectedExecutionException("Task queue is full");
+            }
+            task.run();
+            return;
+        }
+        callExecutor.execute(() -> {
+            queueCapacity.release();
+            task.run();
+        });
+        growIfBusy();
+    }
+
+    /**
+     * Start one more worker if all workers are busy
+     */
+    private void growIfBusy() {
+        if (tasks != null && idleWorkers.get() == 0 && liveWorkers.get() < settings.maxThreads) {
+            tryStartWorker();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> List<R> asList(Object[] array) {
+        return (List<R>) Arrays.asList(array);
+    }
+
+    /**
+     * Rethrow unchecked cause of failed task
+     *
+     * @param cause exception thrown by task
+     * @return never returns, result is for <code>throw</code> statement in caller
+     */
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    /**
+     * Choose chunk size from list size and number of workers
+     *
+     * @param size number of elements to map
+     * @return number of elements in one task
+     */
+    private int defaultGrainSize(int size) {
+        return Math.max(1, size / (Math.max(1, parallelism) * CHUNKS_PER_WORKER));
+    }
+
+    /**
+     * Get current metrics of this mapper
+     *
+     * @return {@link MapperMetrics} snapshot
+     * @throws IllegalStateException if metrics were not enabled in {@link Builder#metrics(boolean)}
+     */
+    public MapperMetrics metrics() {
+        if (metrics == null) {
+            throw new IllegalStateException("Metrics are disabled");
+        }
+        return metrics.snapshot();
     }
 
     @Override
     public void close() {
+        closed = true;
         threads.forEach(Thread::interrupt);
         for (Thread thread : threads) {
             try {
@@ -95,4 +970,224 @@ public class ParallelMapperImpl implements ParallelMapper {
             }
         }
     }
+
+    /**
+     * Builder of {@link ParallelMapperImpl} with own worker threads
+     */
+    public static class Builder {
+        private Integer minThreads;
+        private Integer maxThreads;
+        private long keepAliveNanos = TimeUnit.SECONDS.toNanos(60);
+        private boolean workStealing;
+        private int queueCapacity;
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.BLOCK;
+        private boolean metrics;
+        private ThreadFactory threadFactory = Thread::new;
+        private String namePrefix;
+        private Boolean daemon;
+        private Integer priority;
+        private Thread.UncaughtExceptionHandler uncaughtExceptionHandler;
+        private IntConsumer affinity;
+
+        private Builder() {
+        }
+
+        /**
+         * Copy settings, choosing pool size, which was not set: number of processors,
+         * but not less than minimal and not more than maximal size set
+         *
+         * @return {@link Builder} with pool size set
+         */
+        private Builder copy() {
+            Builder copy = new Builder();
+            int processors = Runtime.getRuntime().availableProcessors();
+            copy.maxThreads = maxThreads != null ? maxThreads : Math.max(processors, minThreads != null ? minThreads : 0);
+            copy.minThreads = minThreads != null ? minThreads : Math.min(processors, copy.maxThreads);
+            copy.keepAliveNanos = keepAliveNanos;
+            copy.workStealing = workStealing;
+            copy.queueCapacity = queueCapacity;
+            copy.rejectionPolicy = rejectionPolicy;
+            copy.metrics = metrics;
+            copy.threadFactory = threadFactory;
+            copy.namePrefix = namePrefix;
+            copy.daemon = daemon;
+            copy.priority = priority;
+            copy.uncaughtExceptionHandler = uncaughtExceptionHandler;
+            copy.affinity = affinity;
+            return copy;
+        }
+
+        /**
+         * Set fixed number of worker threads, number of processors by default
+         *
+         * @param threads number of worker threads
+         * @return this builder
+         */
+        public Builder threads(int threads) {
+            minThreads = threads;
+            maxThreads = threads;
+            return this;
+        }
+
+        /**
+         * Set number of workers kept when there are no tasks,
+         * number of processors by default, but not more than maximal number
+         *
+         * @param minThreads minimal number of worker threads
+         * @return this builder
+         */
+        public Builder minThreads(int minThreads) {
+            this.minThreads = minThreads;
+            return this;
+        }
+
+        /**
+         * Set number of workers, up to which pool grows when all workers are busy,
+         * number of processors by default, but not less than minimal number
+         *
+         * @param maxThreads maximal number of worker threads
+         * @return this builder
+         */
+        public Builder maxThreads(int maxThreads) {
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * Set time, after which idle worker above minimal number stops, 60 seconds by default
+         *
+         * @param keepAlive time of idleness
+         * @param unit unit of <var>keepAlive</var>
+         * @return this builder
+         */
+        public Builder keepAlive(long keepAlive, TimeUnit unit) {
+            keepAliveNanos = unit.toNanos(keepAlive);
+            return this;
+        }
+
+        /**
+         * Set factory of worker threads
+         *
+         * @param threadFactory factory of worker threads
+         * @return this builder
+         */
+        public Builder threadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = Objects.requireNonNull(threadFactory);
+            return this;
+        }
+
+        /**
+         * Name workers <code>namePrefix-index</code>
+         *
+         * @param namePrefix prefix of names of workers
+         * @return this builder
+         */
+        public Builder namePrefix(String namePrefix) {
+            this.namePrefix = namePrefix;
+            return this;
+        }
+
+        /**
+         * Mark workers as daemon threads
+         *
+         * @param daemon if <code>true</code> workers don't prevent exit of JVM
+         * @return this builder
+         */
+        public Builder daemon(boolean daemon) {
+            this.daemon = daemon;
+            return this;
+        }
+
+        /**
+         * Set priority of workers
+         *
+         * @param priority priority from {@link Thread#MIN_PRIORITY} to {@link Thread#MAX_PRIORITY}
+         * @return this builder
+         */
+        public Builder priority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * Set handler of exceptions escaping workers
+         *
+         * @param uncaughtExceptionHandler handler of uncaught exceptions
+         * @return this builder
+         */
+        public Builder uncaughtExceptionHandler(Thread.UncaughtExceptionHandler uncaughtExceptionHandler) {
+            this.uncaughtExceptionHandler = uncaughtExceptionHandler;
+            return this;
+        }
+
+        /**
+         * Set hook, which every worker calls at start with own index. Java can't pin threads
+         * to processors itself, so hook can do it by native call, e.g. <code>sched_setaffinity</code> on Linux
+         *
+         * @param affinity hook pinning current thread by index of worker
+         * @return this builder
+         */
+        public Builder affinity(IntConsumer affinity) {
+            this.affinity = affinity;
+            return this;
+        }
+
+        /**
+         * Choose task queue. Work-stealing deques give better throughput,
+         * shared queue (default) is fair between concurrent calls
+         *
+         * @param workStealing if <code>true</code> every worker has own deque and steals tasks
+         *                     from others when it runs dry, else all workers share one queue
+         * @return this builder
+         */
+        public Builder workStealing(boolean workStealing) {
+            this.workStealing = workStealing;
+            return this;
+        }
+
+        /**
+         * Bound number of tasks waiting in queue, unbounded by default
+         *
+         * @param queueCapacity maximal number of waiting tasks, not positive value means unbounded
+         * @return this builder
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Set what to do, when bounded queue is full, {@link RejectionPolicy#BLOCK} by default
+         *
+         * @param rejectionPolicy policy for tasks not fitting in queue
+         * @return this builder
+         */
+        public Builder rejectionPolicy(RejectionPolicy rejectionPolicy) {
+            this.rejectionPolicy = Objects.requireNonNull(rejectionPolicy);
+            return this;
+        }
+
+        /**
+         * Enable collecting metrics and JFR events of calls, disabled by default.
+         * Recording takes no locks, so metrics are cheap enough to be always enabled
+         *
+         * @param metrics if <code>true</code> metrics are collected
+         * @return this builder
+         * @see ParallelMapperImpl#metrics()
+         */
+        public Builder metrics(boolean metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Create mapper and start its workers
+         *
+         * @return {@link ParallelMapperImpl} with this settings
+         * @throws IllegalArgumentException if maximal size of pool is not positive or less than minimal
+         */
+        public ParallelMapperImpl build() {
+            return new ParallelMapperImpl(this);
+        }
+    }
 }
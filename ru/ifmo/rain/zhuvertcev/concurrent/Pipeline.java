@@ -0,0 +1,157 @@
+package ru.ifmo.rain.zhuvertcev.concurrent;
+
+import info.kgeorgiy.java.advanced.concurrent.AdvancedIP;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Lazy chain of stages over list, run by {@link IterativeParallelism}.
+ * <p>
+ * Stages only compose per-element functions, nothing is computed until terminal operation.
+ * Terminal operation runs all stages in one pass over every slice of source,
+ * so threads are started once and no intermediate lists are allocated.
+ * Pipelines are immutable, every stage returns new pipeline
+ *
+ * @param <T> type of elements after last stage
+ */
+public class Pipeline<T> {
+    private final IterativeParallelism parallelism;
+    private final List<?> source;
+    private final Function<Consumer<? super T>, Consumer<Object>> stages;
+
+    private Pipeline(IterativeParallelism parallelism, List<?> source,
+                     Function<Consumer<? super T>, Consumer<Object>> stages) {
+        this.parallelism = parallelism;
+        this.source = source;
+        this.stages = stages;
+    }
+
+    /**
+     * Create pipeline without stages
+     *
+     * @param parallelism {@link IterativeParallelism} running pipeline
+     * @param values source of pipeline
+     * @param <T> type of values
+     * @return {@link Pipeline} passing <var>values</var> as is
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Pipeline<T> of(IterativeParallelism parallelism, List<? extends T> values) {
+        return new Pipeline<>(parallelism, values, sink -> element -> sink.accept((T) element));
+    }
+
+    /**
+     * Add stage applying <var>f</var> to every element
+     *
+     * @param f function to apply
+     * @param <U> type of results of <var>f</var>
+     * @return {@link Pipeline} with new stage
+     */
+    public <U> Pipeline<U> map(Function<? super T, ? extends U> f) {
+        return new Pipeline<U>(parallelism, source, sink -> stages.apply(element -> sink.accept(f.apply(element))));
+    }
+
+    /**
+     * Add stage passing only elements matching <var>predicate</var>
+     *
+     * @param predicate predicate to test
+     * @return {@link Pipeline} with new stage
+     */
+    public Pipeline<T> filter(Predicate<? super T> predicate) {
+        return new Pipeline<T>(parallelism, source, sink -> stages.apply(element -> {
+            if (predicate.test(element)) {
+                sink.accept(element);
+            }
+        }));
+    }
+
+    /**
+     * Add stage passing every element to <var>action</var>, for example to observe them
+     *
+     * @param action action to perform
+     * @return {@link Pipeline} with new stage
+     */
+    public Pipeline<T> peek(Consumer<? super T> action) {
+        return new Pipeline<T>(parallelism, source, sink -> stages.apply(element -> {
+            action.accept(element);
+            sink.accept(element);
+        }));
+    }
+
+    /**
+     * Run pipeline and reduce results by <var>monoid</var>
+     *
+     * @param threads maximal number of threads
+     * @param monoid monoid to reduce by
+     * @return reduction of results
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public T reduce(int threads, AdvancedIP.Monoid<T> monoid) throws InterruptedException {
+        return mapReduce(threads, Function.identity(), monoid);
+    }
+
+    /**
+     * Run pipeline, apply <var>lift</var> to results and reduce them by <var>monoid</var>
+     *
+     * @param threads maximal number of threads
+     * @param lift function to apply
+     * @param monoid monoid to reduce by
+     * @param <R> type of reduced values
+     * @return reduction of lifted results
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public <R> R mapReduce(int threads, Function<? super T, ? extends R> lift, AdvancedIP.Monoid<R> monoid)
+            throws InterruptedException {
+        BinaryOperator<R> operator = monoid.getOperator();
+        return parallelism.parallelReduce(threads, source, stream -> {
+            Accumulator<R> accumulator = new Accumulator<>(monoid.getIdentity());
+            stream.forEach(stages.apply(element -> accumulator.value = operator.apply(accumulator.value, lift.apply(element))));
+            return accumulator.value;
+        }, stream -> stream.reduce(monoid.getIdentity(), operator::apply, operator));
+    }
+
+    /**
+     * Run pipeline and collect results in order
+     *
+     * @param threads maximal number of threads
+     * @return {@link List} of results
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public List<T> toList(int threads) throws InterruptedException {
+        return parallelism.<Object, List<T>>parallelReduce(threads, source, stream -> {
+            List<T> part = new ArrayList<>();
+            stream.forEach(stages.apply(part::add));
+            return part;
+        }, stream -> {
+            List<T> result = new ArrayList<>();
+            stream.forEachOrdered(result::addAll);
+            return result;
+        });
+    }
+
+    /**
+     * Run pipeline and count results
+     *
+     * @param threads maximal number of threads
+     * @return number of results
+     * @throws InterruptedException if calling thread was interrupted
+     */
+    public long count(int threads) throws InterruptedException {
+        return mapReduce(threads, element -> 1L, new AdvancedIP.Monoid<>(0L, Long::sum));
+    }
+
+    /**
+     * Mutable result of slice
+     */
+    private static class Accumulator<R> {
+        private R value;
+
+        public Accumulator(R value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ru.ifmo.rain.zhuvertcev.mapper;
+
+/**
+ * What {@link ParallelMapperImpl} does with new task, when its bounded task queue is full
+ */
+public enum RejectionPolicy {
+    /**
+     * Calling thread waits until some task is taken by worker, even in non-blocking methods
+     * like {@link ParallelMapperImpl#mapAsync}. Interrupt of waiting thread cancels the call
+     */
+    BLOCK,
+    /**
+     * Call fails with {@link java.util.concurrent.RejectedExecutionException}
+     */
+    ABORT,
+    /**
+     * Calling thread runs task itself
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,104 @@
+package ru.ifmo.rain.zhuvertcev.mapper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor starting new thread for every task, with limit of simultaneously running tasks.
+ * <p>
+ * Tasks over the limit wait in queue, {@link #execute(Runnable)} never blocks.
+ * Useful with virtual threads, when tasks block on I/O and pool of platform threads
+ * would limit concurrency.
+ */
+public class ThreadPerTaskExecutor implements Executor {
+    private final ThreadFactory threadFactory;
+    private final Semaphore permits;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final int maxConcurrency;
+
+    /**
+     * Create executor with given thread factory and concurrency limit
+     *
+     * @param threadFactory factory for threads, one thread per task
+     * @param maxConcurrency maximal number of simultaneously running tasks
+     */
+    public ThreadPerTaskExecutor(final ThreadFactory threadFactory, final int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency limit should be positive: " + maxConcurrency);
+        }
+        this.threadFactory = threadFactory;
+        this.maxConcurrency = maxConcurrency;
+        permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Create executor running every task on new virtual thread.
+     * <p>
+     * On Java versions without virtual threads daemon platform threads are used
+     *
+     * @param maxConcurrency maximal number of simultaneously running tasks
+     * @return {@link ThreadPerTaskExecutor} on virtual threads
+     */
+    public static ThreadPerTaskExecutor virtual(final int maxConcurrency) {
+        return new ThreadPerTaskExecutor(virtualThreadFactory(), maxConcurrency);
+    }
+
+    /**
+     * Get factory of virtual threads, looked up reflectively to keep running on older Java
+     *
+     * @return {@link ThreadFactory} of virtual threads if they are supported, else of daemon threads
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException
+                | InvocationTargetException e) {
+            return task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * Get maximal number of simultaneously running tasks
+     *
+     * @return concurrency limit
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        pending.add(task);
+        startPending();
+    }
+
+    /**
+     * Start threads for pending tasks while there are free permits
+     */
+    private void startPending() {
+        while (!pending.isEmpty() && permits.tryAcquire()) {
+            Runnable task = pending.poll();
+            if (task == null) {
+                permits.release();
+                continue;
+            }
+            threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                    startPending();
+                }
+            }).start();
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package ru.ifmo.rain.zhuvertcev.implementor;
+
+import info.kgeorgiy.java.advanced.implementor.ImplerException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Implementor writing class files directly, without generating and compiling source code.
+ * <p>
+ * Implementation has same constructors and methods, as {@link Implementor} generates:
+ * constructors call super, methods return default values. Code of methods has no branches,
+ * so class files need no stack map frames
+ */
+public class BytecodeImplementor extends JarImplementor {
+    /**
+     * Version of class files, Java 11
+     */
+    private static final int CLASS_VERSION = 55;
+
+    /**
+     * Create implementor generating every implementation anew
+     */
+    public BytecodeImplementor() {
+        this(false);
+    }
+
+    /**
+     * Create implementor
+     *
+     * @param incremental if <code>true</code> skip classes, which fingerprints haven't changed
+     */
+    public BytecodeImplementor(boolean incremental) {
+        super(true, incremental);
+    }
+
+    @Override
+    protected String getOutputExtension() {
+        return "class";
+    }
+
+    /**
+     * Write class file implementing class or interface specified by provided <var>token</var>.
+     * <p>
+     * For example, the implementation of the interface {@link java.util.List}
+     * goes to <var>$root/java/util/ListImpl.class</var>
+     *
+     * @param token type token to create implementation for.
+     * @param root root directory.
+     * @throws ImplerException when implementation cannot be generated.
+     */
+    @Override
+    protected void writeImplementation(Class<?> token, Path root) throws ImplerException {
+        byte[] bytecode = generateClass(token);
+        Path outputFile = getOutputFile(token, root, "class");
+        createDirectories(outputFile);
+        try {
+            Files.write(outputFile, bytecode);
+        } catch (IOException e) {
+            throw new ImplerException("Can't write in " + outputFile, e);
+        }
+    }
+
+    @Override
+    protected Map<String, byte[]> compile(Collection<Class<?>> tokens, Path jarFile) throws ImplerException {
+        Map<String, byte[]> classes = new TreeMap<>();
+        for (Class<?> token : tokens) {
+            classes.put(getImplName(token), generateClass(token));
+        }
+        return classes;
+    }
+
+    /**
+     * Define implementation of <var>token</var> by <var>lookup</var>.
+     * <p>
+     * Class is defined in package and class loader of lookup class, so <var>lookup</var>
+     * should be in package of <var>token</var> and have {@link MethodHandles.Lookup#PACKAGE} access
+     *
+     * @param token type token to create implementation for
+     * @param lookup lookup in package of <var>token</var>
+     * @return {@link Class} implementing <var>token</var>
+     * @throws ImplerException when implementation cannot be generated or defined
+     */
+    public Class<?> defineClass(Class<?> token, MethodHandles.Lookup lookup) throws ImplerException {
+        try {
+            return lookup.defineClass(generateClass(token));
+        } catch (IllegalAccessException | LinkageError | IllegalArgumentException e) {
+            throw new ImplerException("Couldn't define implementation of " + token.getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * Define implementation of <var>token</var> by new class loader with <var>parent</var> loader.
+     * <p>
+     * Implementation is in other runtime package than <var>token</var>, so package-private
+     * abstract methods are not overridden and package-private constructors can't be called
+     *
+     * @param token type token to create implementation for
+     * @param parent loader, which sees <var>token</var>
+     * @return {@link Class} implementing <var>token</var>
+     * @throws ImplerException when implementation cannot be generated or defined
+     */
+    public Class<?> defineClass(Class<?> token, ClassLoader parent) throws ImplerException {
+        try {
+            return new ImplClassLoader(parent).define(getImplName(token), generateClass(token));
+        } catch (LinkageError e) {
+            throw new ImplerException("Couldn't define implementation of " + token.getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * Generate class file implementing class or interface specified by <var>token</var>
+     *
+     * @param token type token to create implementation for
+     * @return bytecode of class <var>token</var> name with <var>Impl</var> suffix
+     * @throws ImplerException when implementation cannot be generated
+     */
+    public byte[] generateClass(Class<?> token) throws ImplerException {
+        if (token == null) {
+            throw new ImplerException("class cannot be null");
+        }
+        checkImplementable(token);
+        ClassWriter writer = new ClassWriter();
+        String superName = token.isInterface() ? "java/lang/Object" : getInternalName(token);
+        List<byte[]> methods = new ArrayList<>();
+        if (token.isInterface()) {
+            methods.add(writer.constructor(Modifier.PUBLIC, superName, new Class<?>[0], new Class<?>[0]));
+        } else {
+            for (Constructor<?> constructor : getConstructors(token)) {
+                methods.add(writer.constructor(getAccessFlags(constructor), superName,
+                        constructor.getParameterTypes(), constructor.getExceptionTypes()));
+            }
+        }
+        for (Method method : getAbstractMethods(token)) {
+            methods.add(writer.method(getAccessFlags(method), method.getName(), method.getParameterTypes(),
+                    method.getReturnType(), method.getExceptionTypes()));
+        }
+        return writer.toByteArray(getImplName(token).replace('.', '/'), superName,
+                token.isInterface() ? getInternalName(token) : null, methods);
+    }
+
+    /**
+     * Get access flags of implementation of method or constructor
+     *
+     * @param executable implemented method or constructor
+     * @return flags of <var>executable</var> without abstract and native, with varargs
+     */
+    private static int getAccessFlags(Executable executable) {
+        int flags = executable.getModifiers() & (Modifier.PUBLIC | Modifier.PROTECTED | Modifier.PRIVATE
+                | Modifier.STATIC | Modifier.FINAL | Modifier.SYNCHRONIZED | Modifier.STRICT);
+        return executable.isVarArgs() ? flags | ClassWriter.ACC_VARARGS : flags;
+    }
+
+    /**
+     * Get name of class in class file format
+     *
+     * @param clazz class to get name of
+     * @return {@link String} name with slashes
+     */
+    private static String getInternalName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    /**
+     * Get descriptor of type in class file format
+     *
+     * @param type type to get descriptor of
+     * @return {@link String} descriptor of <var>type</var>
+     */
+    private static String getDescriptor(Class<?> type) {
+        if (type.isArray()) {
+            return getInternalName(type);
+        } else if (!type.isPrimitive()) {
+            return "L" + getInternalName(type) + ";";
+        } else if (type == boolean.class) {
+            return "Z";
+        } else if (type == long.class) {
+            return "J";
+        } else if (type == void.class) {
+            return "V";
+        }
+        return String.valueOf(Character.toUpperCase(type.getName().charAt(0)));
+    }
+
+    /**
+     * Get descriptor of method in class file format
+     *
+     * @param parameterTypes types of parameters
+     * @param returnType type of result
+     * @return {@link String} descriptor of method
+     */
+    private static String getDescriptor(Class<?>[] parameterTypes, Class<?> returnType) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Class<?> type : parameterTypes) {
+            descriptor.append(getDescriptor(type));
+        }
+        return descriptor.append(')').append(getDescriptor(returnType)).toString();
+    }
+
+    /**
+     * Get number of local variable slots taken by value of <var>type</var>
+     *
+     * @param type type of value
+     * @return 2 for <code>long</code> and <code>double</code>, 0 for <code>void</code>, else 1
+     */
+    private static int getSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 2;
+        }
+        return type == void.class ? 0 : 1;
+    }
+
+    /**
+     * Writer of class file with constant pool and methods
+     */
+    private static class ClassWriter {
+        /**
+         * Flag of class file format, which {@link Modifier} can't print
+         */
+        private static final int ACC_VARARGS = 0x0080;
+        private static final int ACC_SUPER = 0x0020;
+
+        private static final int CONSTANT_UTF8 = 1;
+        private static final int CONSTANT_CLASS = 7;
+        private static final int CONSTANT_METHODREF = 10;
+        private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+        private static final int ALOAD_0 = 0x2a;
+        private static final int ACONST_NULL = 0x01;
+        private static final int ICONST_0 = 0x03;
+        private static final int LCONST_0 = 0x09;
+        private static final int FCONST_0 = 0x0b;
+        private static final int DCONST_0 = 0x0e;
+        private static final int ILOAD = 0x15;
+        private static final int LLOAD = 0x16;
+        private static final int FLOAD = 0x17;
+        private static final int DLOAD = 0x18;
+        private static final int ALOAD = 0x19;
+        private static final int IRETURN = 0xac;
+        private static final int LRETURN = 0xad;
+        private static final int FRETURN = 0xae;
+        private static final int DRETURN = 0xaf;
+        private static final int ARETURN = 0xb0;
+        private static final int RETURN = 0xb1;
+        private static final int INVOKESPECIAL = 0xb7;
+
+        /**
+         * Entries of constant pool
+         */
+        private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+        private final DataOutputStream constants = new DataOutputStream(constantPool);
+
+        /**
+         * Indices of added entries by their kind and content
+         */
+        private final Map<String, Integer> constantIndices = new HashMap<>();
+        private int constantsCount = 1;
+
+        /**
+         * Add entry to constant pool, if it isn't added yet
+         *
+         * @param key kind and content of entry
+         * @param entry writer of entry
+         * @return index of entry
+         */
+        private int constant(String key, IOAction entry) {
+            Integer index = constantIndices.get(key);
+            if (index == null) {
+                try {
+                    entry.run(constants);
+                } catch (IOException e) {
+                    throw new AssertionError("Memory stream can't fail", e);
+                }
+                index = constantsCount++;
+                constantIndices.put(key, index);
+            }
+            return index;
+        }
+
+        private int utf8(String value) {
+            return constant("U" + value, out -> {
+                out.writeByte(CONSTANT_UTF8);
+                out.writeUTF(value);
+            });
+        }
+
+        private int classRef(String internalName) {
+            int name = utf8(internalName);
+            return constant("C" + internalName, out -> {
+                out.writeByte(CONSTANT_CLASS);
+                out.writeShort(name);
+            });
+        }
+
+        private int methodRef(String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = constant("N" + name + descriptor, out -> {
+                out.writeByte(CONSTANT_NAME_AND_TYPE);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return constant("M" + owner + "." + name + descriptor, out -> {
+                out.writeByte(CONSTANT_METHODREF);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        /**
+         * Write constructor calling constructor of superclass with same parameters
+         *
+         * @param access access flags
+         * @param superName internal name of superclass
+         * @param parameterTypes types of parameters
+         * @param exceptionTypes declared exceptions
+         * @return bytes of <code>method_info</code>
+         */
+        public byte[] constructor(int access, String superName, Class<?>[] parameterTypes, Class<?>[] exceptionTypes) {
+            String descriptor = getDescriptor(parameterTypes, void.class);
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            code.write(ALOAD_0);
+            int slot = 1;
+            for (Class<?> type : parameterTypes) {
+                code.write(getLoadOpcode(type));
+                code.write(slot);
+                slot += getSize(type);
+            }
+            int superConstructor = methodRef(superName, "<init>", descriptor);
+            code.write(INVOKESPECIAL);
+            code.write(superConstructor >> 8);
+            code.write(superConstructor);
+            code.write(RETURN);
+            return methodInfo(access, "<init>", descriptor, code.toByteArray(), slot, slot, exceptionTypes);
+        }
+
+        /**
+         * Write method returning default value of <var>returnType</var>
+         *
+         * @param access access flags
+         * @param name name of method
+         * @param parameterTypes types of parameters
+         * @param returnType type of result
+         * @param exceptionTypes declared exceptions
+         * @return bytes of <code>method_info</code>
+         */
+        public byte[] method(int access, String name, Class<?>[] parameterTypes, Class<?> returnType,
+                             Class<?>[] exceptionTypes) {
+            int locals = (access & Modifier.STATIC) != 0 ? 0 : 1;
+            for (Class<?> type : parameterTypes) {
+                locals += getSize(type);
+            }
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            if (returnType != void.class) {
+                code.write(getDefaultValueOpcode(returnType));
+            }
+            code.write(getReturnOpcode(returnType));
+            return methodInfo(access, name, getDescriptor(parameterTypes, returnType), code.toByteArray(),
+                    getSize(returnType), locals, exceptionTypes);
+        }
+
+        /**
+         * Write <code>method_info</code> with <code>Code</code> and <code>Exceptions</code> attributes
+         */
+        private byte[] methodInfo(int access, String name, String descriptor, byte[] code, int maxStack,
+                                  int maxLocals, Class<?>[] exceptionTypes) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(exceptionTypes.length == 0 ? 1 : 2);
+
+                out.writeShort(utf8("Code"));
+                out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(0);
+                out.writeShort(0);
+
+                if (exceptionTypes.length != 0) {
+                    out.writeShort(utf8("Exceptions"));
+                    out.writeInt(2 + 2 * exceptionTypes.length);
+                    out.writeShort(exceptionTypes.length);
+                    for (Class<?> exception : exceptionTypes) {
+                        out.writeShort(classRef(getInternalName(exception)));
+                    }
+                }
+            } catch (IOException e) {
+                throw new AssertionError("Memory stream can't fail", e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Write class file
+         *
+         * @param name internal name of class
+         * @param superName internal name of superclass
+         * @param interfaceName internal name of implemented interface, or <code>null</code>
+         * @param methods written methods of class
+         * @return bytes of class file
+         */
+        public byte[] toByteArray(String name, String superName, String interfaceName, List<byte[]> methods) {
+            int thisClass = classRef(name);
+            int superClass = classRef(superName);
+            int interfaceClass = interfaceName == null ? 0 : classRef(interfaceName);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(CLASS_VERSION);
+                out.writeShort(constantsCount);
+                constants.flush();
+                constantPool.writeTo(out);
+                out.writeShort(Modifier.PUBLIC | ACC_SUPER);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                if (interfaceName == null) {
+                    out.writeShort(0);
+                } else {
+                    out.writeShort(1);
+                    out.writeShort(interfaceClass);
+                }
+                out.writeShort(0);
+                out.writeShort(methods.size());
+                for (byte[] method : methods) {
+                    out.write(method);
+                }
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new AssertionError("Memory stream can't fail", e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static int getLoadOpcode(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return ALOAD;
+            } else if (type == long.class) {
+                return LLOAD;
+            } else if (type == float.class) {
+                return FLOAD;
+            } else if (type == double.class) {
+                return DLOAD;
+            }
+            return ILOAD;
+        }
+
+        private static int getDefaultValueOpcode(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return ACONST_NULL;
+            } else if (type == long.class) {
+                return LCONST_0;
+            } else if (type == float.class) {
+                return FCONST_0;
+            } else if (type == double.class) {
+                return DCONST_0;
+            }
+            return ICONST_0;
+        }
+
+        private static int getReturnOpcode(Class<?> type) {
+            if (type == void.class) {
+                return RETURN;
+            } else if (!type.isPrimitive()) {
+                return ARETURN;
+            } else if (type == long.class) {
+                return LRETURN;
+            } else if (type == float.class) {
+                return FRETURN;
+            } else if (type == double.class) {
+                return DRETURN;
+            }
+            return IRETURN;
+        }
+    }
+
+    /**
+     * Action writing to stream in memory
+     */
+    private interface IOAction {
+        void run(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Class loader defining generated classes
+     */
+    private static class ImplClassLoader extends ClassLoader {
+        /**
+         * Constructor of class
+         *
+         * @param parent loader of implemented classes
+         */
+        public ImplClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        /**
+         * Define class from bytecode
+         *
+         * @param name binary name of class
+         * @param bytecode class file
+         * @return defined {@link Class}
+         */
+        public Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
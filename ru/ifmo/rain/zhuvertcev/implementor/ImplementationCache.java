@@ -0,0 +1,118 @@
+package ru.ifmo.rain.zhuvertcev.implementor;
+
+import info.kgeorgiy.java.advanced.implementor.ImplerException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Index of fingerprints of generated implementations, stored in properties file.
+ * <p>
+ * Implementation is regenerated only when fingerprint of implemented class changes.
+ * Methods are synchronized, so one cache can be shared by parallel workers
+ */
+class ImplementationCache {
+    /**
+     * File of index
+     */
+    private final Path indexFile;
+
+    /**
+     * Fingerprints by names of implementations
+     */
+    private final Properties fingerprints = new Properties();
+
+    /**
+     * Is index changed since loading
+     */
+    private boolean changed;
+
+    /**
+     * Load index from <var>indexFile</var>, broken or missing index is treated as empty
+     *
+     * @param indexFile file of index
+     */
+    public ImplementationCache(Path indexFile) {
+        this.indexFile = indexFile;
+        if (Files.isRegularFile(indexFile)) {
+            try (InputStream in = Files.newInputStream(indexFile)) {
+                fingerprints.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                fingerprints.clear();
+            }
+        }
+    }
+
+    /**
+     * Check that implementation was generated for same fingerprint
+     *
+     * @param name name of implementation
+     * @param fingerprint current fingerprint of implemented class
+     * @return <code>true</code> if stored fingerprint equals to <var>fingerprint</var>
+     */
+    public synchronized boolean isFresh(String name, String fingerprint) {
+        return fingerprint.equals(fingerprints.getProperty(name));
+    }
+
+    /**
+     * Check that index has exactly given fingerprints
+     *
+     * @param current fingerprints by names of implementations
+     * @return <code>true</code> if index consists of <var>current</var>
+     */
+    public synchronized boolean isFresh(Map<String, String> current) {
+        return fingerprints.size() == current.size() && current.entrySet().stream()
+                .allMatch(entry -> Objects.equals(fingerprints.getProperty(entry.getKey()), entry.getValue()));
+    }
+
+    /**
+     * Remember fingerprint of generated implementation
+     *
+     * @param name name of implementation
+     * @param fingerprint fingerprint of implemented class
+     */
+    public synchronized void put(String name, String fingerprint) {
+        changed |= !fingerprint.equals(fingerprints.setProperty(name, fingerprint));
+    }
+
+    /**
+     * Replace index by given fingerprints
+     *
+     * @param current fingerprints by names of implementations
+     */
+    public synchronized void replace(Map<String, String> current) {
+        if (!isFresh(current)) {
+            fingerprints.clear();
+            fingerprints.putAll(current);
+            changed = true;
+        }
+    }
+
+    /**
+     * Write index to its file, if it was changed
+     *
+     * @throws ImplerException if index can't be written
+     */
+    public synchronized void store() throws ImplerException {
+        if (!changed) {
+            return;
+        }
+        try {
+            if (indexFile.getParent() != null) {
+                Files.createDirectories(indexFile.getParent());
+            }
+            try (OutputStream out = Files.newOutputStream(indexFile)) {
+                fingerprints.store(out, "Fingerprints of implemented classes");
+            }
+            changed = false;
+        } catch (IOException e) {
+            throw new ImplerException("Couldn't write cache index " + indexFile, e);
+        }
+    }
+}
@@ -6,11 +6,21 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.*;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 
 public class Implementor implements Impler {
@@ -24,6 +34,47 @@ public class Implementor implements Impler {
      */
     private final String INDENT = "    ";
 
+    /**
+     * Name of index of fingerprints in root directory
+     */
+    private static final String CACHE_INDEX = ".implementor-cache.properties";
+
+    /**
+     * Version of generated code, changing it invalidates fingerprints of previous versions
+     */
+    private static final String FINGERPRINT_VERSION = "1";
+
+    /**
+     * If <code>true</code> implementations of unchanged classes are not regenerated
+     */
+    private final boolean incremental;
+
+    /**
+     * Create implementor generating every implementation anew
+     */
+    public Implementor() {
+        this(false);
+    }
+
+    /**
+     * Create implementor
+     *
+     * @param incremental if <code>true</code> remember fingerprints of implemented classes in index
+     *                    and skip classes, which fingerprints haven't changed
+     */
+    public Implementor(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Check whether implementations of unchanged classes are skipped
+     *
+     * @return <code>true</code> if implementor is incremental
+     */
+    protected boolean isIncremental() {
+        return incremental;
+    }
+
     /**
      * Get simple class name with Impl on end
      *
@@ -189,15 +240,27 @@ public class Implementor implements Impler {
      * constructors
      */
     private void implementConstructors(Class<?> implementedClazz, StringBuilder implementFileString) throws ImplerException {
+        for (var constructor : getConstructors(implementedClazz)) {
+            implementFileString.append(getExecutableBody(constructor));
+        }
+    }
+
+    /**
+     * Get constructors, which implementation of class <var>implementedClazz</var> should have
+     *
+     * @param implementedClazz this class are implementing
+     * @return {@link List} of non-private constructors of <var>implementedClazz</var>, sorted by parameter types
+     * @throws ImplerException if <var>implementedClazz</var> has not non-private constructors
+     */
+    protected List<Constructor<?>> getConstructors(Class<?> implementedClazz) throws ImplerException {
         List<Constructor<?>> constructors = Arrays.stream(implementedClazz.getDeclaredConstructors())
                 .filter(constructor -> !Modifier.isPrivate(constructor.getModifiers()))
+                .sorted(Comparator.comparing(Implementor::getParameterTypeNames))
                 .collect(Collectors.toList());
-        for (var constructor : constructors) {
-            implementFileString.append(getExecutableBody(constructor));
-        }
         if (constructors.isEmpty()) {
             throw new ImplerException("Hasn't non-private constructors");
         }
+        return constructors;
     }
 
     /**
@@ -227,6 +290,19 @@ public class Implementor implements Impler {
      * @param implementFileString in this {@link StringBuilder} write implementation of current
      */
     private void implementMethods(Class<?> clazz, StringBuilder implementFileString) {
+        for (Method method : getAbstractMethods(clazz)) {
+            implementFileString.append(getExecutableBody(method));
+        }
+    }
+
+    /**
+     * Get abstract methods, which implementation of <var>clazz</var> should override
+     *
+     * @param clazz this class are implementing
+     * @return {@link List} of abstract methods of <var>clazz</var> and its superclasses,
+     * one for every name and parameter types, sorted by them
+     */
+    protected List<Method> getAbstractMethods(Class<?> clazz) {
         Set<MethodWrapper> abstractMethods = new HashSet<>();
         Set<MethodWrapper> finalMethods = new HashSet<>();
         addMethodsInSet(clazz.getMethods(), abstractMethods, finalMethods);
@@ -234,9 +310,20 @@ public class Implementor implements Impler {
             addMethodsInSet(clazz.getDeclaredMethods(), abstractMethods, finalMethods);
             clazz = clazz.getSuperclass();
         }
-        for (MethodWrapper methodWrapper : abstractMethods) {
-            implementFileString.append(getExecutableBody(methodWrapper.getMethod()));
-        }
+        // reflection and hash set give no stable order, sorting makes output reproducible
+        return abstractMethods.stream().map(MethodWrapper::getMethod)
+                .sorted(Comparator.comparing(Method::getName).thenComparing(Implementor::getParameterTypeNames))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get names of parameter types of method or constructor
+     *
+     * @param executable method or constructor
+     * @return {@link String} of comma separated names of parameter types
+     */
+    private static String getParameterTypeNames(Executable executable) {
+        return Arrays.stream(executable.getParameterTypes()).map(Class::getName).collect(Collectors.joining(","));
     }
 
     /**
@@ -318,26 +405,273 @@ public class Implementor implements Impler {
     @Override
     public void implement(Class<?> token, Path root) throws ImplerException {
         checkNotNulls(token, root);
-        int modifiers = token.getModifiers();
-        if (token.isPrimitive() || token.isArray() || token == Enum.class || Modifier.isFinal(modifiers)
-                || Modifier.isPrivate(modifiers)) {
-            throw new ImplerException("Unable to implement " + token.getCanonicalName());
+        ImplementationCache cache = incremental ? new ImplementationCache(root.resolve(CACHE_INDEX)) : null;
+        implement(token, root, cache);
+        if (cache != null) {
+            cache.store();
         }
-        StringBuilder implementFileString = new StringBuilder();
-        if (!token.isInterface()) {
-            implementConstructors(token, implementFileString);
+    }
+
+    /**
+     * Implement <var>token</var>, unless <var>cache</var> has its fingerprint and implementation exists
+     *
+     * @param token type token to create implementation for
+     * @param root root directory
+     * @param cache index of fingerprints, <code>null</code> to implement anyway
+     * @throws ImplerException when implementation cannot be generated
+     */
+    private void implement(Class<?> token, Path root, ImplementationCache cache) throws ImplerException {
+        checkNotNulls(token, root);
+        if (cache == null) {
+            writeImplementation(token, root);
+            return;
         }
-        implementMethods(token, implementFileString);
+        String name = getImplName(token);
+        String fingerprint = getFingerprint(token);
+        if (cache.isFresh(name, fingerprint) && Files.exists(getOutputFile(token, root, getOutputExtension()))) {
+            return;
+        }
+        writeImplementation(token, root);
+        cache.put(name, fingerprint);
+    }
+
+    /**
+     * Get extension of files written by {@link #writeImplementation(Class, Path)}
+     *
+     * @return {@link String} extension without dot
+     */
+    protected String getOutputExtension() {
+        return "java";
+    }
+
+    /**
+     * Write implementation of <var>token</var> into <var>root</var> directory
+     *
+     * @param token type token to create implementation for
+     * @param root root directory
+     * @throws ImplerException when implementation cannot be generated or written
+     */
+    protected void writeImplementation(Class<?> token, Path root) throws ImplerException {
+        String source = generateSource(token);
         Path outputFile = getOutputFile(token, root, "java");
         createDirectories(outputFile);
         try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
-            implementFileString = getOutClass(token, implementFileString);
-            writer.write(toUTF(implementFileString.toString()));
+            writer.write(source);
         } catch (IOException e) {
             throw new ImplerException("Can't write in " + outputFile, e);
         }
     }
 
+    /**
+     * Produces code implementing every class or interface of <var>tokens</var> in parallel.
+     * <p>
+     * Reflection, generation and writing of every class are run by one of <var>threads</var> workers.
+     * Failure of one class doesn't stop others, failures are returned. Classes, which implementations
+     * would have same name, are not implemented and returned as failures too
+     *
+     * @param tokens type tokens to create implementations for
+     * @param root root directory
+     * @param threads number of worker threads
+     * @return {@link Map} from names of classes, which couldn't be implemented, to reasons, sorted by names
+     * @throws InterruptedException if calling thread was interrupted while waiting for workers
+     */
+    public Map<String, ImplerException> implement(Collection<Class<?>> tokens, Path root, int threads)
+            throws InterruptedException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads should be positive: " + threads);
+        }
+        // workers share one index, which is written once after all of them
+        ImplementationCache cache = incremental && root != null
+                ? new ImplementationCache(root.resolve(CACHE_INDEX)) : null;
+        Map<String, ImplerException> errors = new TreeMap<>();
+        Map<Class<?>, String> collisions = getCollisions(tokens);
+        collisions.forEach((token, implName) -> errors.put(token.getName(), new ImplerException(
+                "Implementation " + implName + " of " + token.getName() + " collides with implementation of other class")));
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            Map<Class<?>, Future<?>> results = new LinkedHashMap<>();
+            for (Class<?> token : tokens) {
+                if (collisions.containsKey(token)) {
+                    continue;
+                }
+                results.computeIfAbsent(token, key -> workers.submit(() -> {
+                    implement(key, root, cache);
+                    return null;
+                }));
+            }
+            for (Map.Entry<Class<?>, Future<?>> result : results.entrySet()) {
+                String name = result.getKey() == null ? "null" : result.getKey().getName();
+                try {
+                    result.getValue().get();
+                } catch (ExecutionException e) {
+                    errors.put(name, e.getCause() instanceof ImplerException ? (ImplerException) e.getCause()
+                            : new ImplerException("Unexpected error", e.getCause()));
+                }
+            }
+            if (cache != null) {
+                try {
+                    cache.store();
+                } catch (ImplerException e) {
+                    errors.put(CACHE_INDEX, e);
+                }
+            }
+            return errors;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Find classes, which implementations would have same name and so same output file,
+     * like nested classes with same simple name in different classes of one package
+     *
+     * @param tokens type tokens to create implementations for
+     * @return {@link Map} from colliding classes to names of their implementations
+     */
+    protected Map<Class<?>, String> getCollisions(Collection<Class<?>> tokens) {
+        Map<String, Set<Class<?>>> byImplName = new HashMap<>();
+        for (Class<?> token : tokens) {
+            if (token != null) {
+                byImplName.computeIfAbsent(getImplName(token), name -> new LinkedHashSet<>()).add(token);
+            }
+        }
+        Map<Class<?>, String> collisions = new LinkedHashMap<>();
+        byImplName.forEach((name, group) -> {
+            if (group.size() > 1) {
+                group.forEach(token -> collisions.put(token, name));
+            }
+        });
+        return collisions;
+    }
+
+    /**
+     * Load public interfaces and abstract classes from <var>.jar</var> file without initializing them
+     *
+     * @param jarFile <var>.jar</var> file with classes
+     * @param parent loader of classes, which classes of <var>jarFile</var> depend on
+     * @return {@link List} of classes, which can be implemented, sorted by names
+     * @throws IOException if <var>jarFile</var> can't be read
+     */
+    public static List<Class<?>> getImplementableClasses(Path jarFile, ClassLoader parent) throws IOException {
+        // loader stays open, as implemented classes refer to other classes of jar
+        URLClassLoader loader = new URLClassLoader(new URL[]{jarFile.toUri().toURL()}, parent);
+        List<Class<?>> classes = new ArrayList<>();
+        try (JarFile jar = new JarFile(jarFile.toFile())) {
+            for (JarEntry entry : Collections.list(jar.entries())) {
+                String name = entry.getName();
+                if (!name.endsWith(".class") || name.endsWith("module-info.class")) {
+                    continue;
+                }
+                try {
+                    Class<?> token = Class.forName(name.substring(0, name.length() - ".class".length())
+                            .replace('/', '.'), false, loader);
+                    int modifiers = token.getModifiers();
+                    if (Modifier.isPublic(modifiers) && !token.isAnnotation() && token.getCanonicalName() != null
+                            && (token.isInterface() || Modifier.isAbstract(modifiers))) {
+                        classes.add(token);
+                    }
+                } catch (ClassNotFoundException | LinkageError ignored) {
+                    // classes with missing dependencies can't be implemented anyway
+                }
+            }
+        }
+        classes.sort(Comparator.comparing(Class::getName));
+        return classes;
+    }
+
+    /**
+     * Generate source code implementing class or interface specified by <var>token</var>, without writing it
+     *
+     * @param token type token to create implementation for
+     * @return {@link String} source code of class <var>token</var> name with <var>Impl</var> suffix
+     * @throws ImplerException when implementation cannot be generated
+     */
+    protected String generateSource(Class<?> token) throws ImplerException {
+        checkImplementable(token);
+        StringBuilder implementFileString = new StringBuilder();
+        if (!token.isInterface()) {
+            implementConstructors(token, implementFileString);
+        }
+        implementMethods(token, implementFileString);
+        return toUTF(getOutClass(token, implementFileString).toString());
+    }
+
+    /**
+     * Get fingerprint of everything, implementation of <var>token</var> depends on:
+     * name and modifiers of <var>token</var>, its constructors and abstract methods
+     * with their modifiers, parameters, return types and exceptions
+     *
+     * @param token implemented class
+     * @return {@link String} hex SHA-256 hash of signature of <var>token</var>
+     * @throws ImplerException if <var>token</var> can't be implemented
+     */
+    protected String getFingerprint(Class<?> token) throws ImplerException {
+        checkImplementable(token);
+        StringBuilder signature = new StringBuilder(FINGERPRINT_VERSION).append(' ').append(getClass().getName())
+                .append(' ').append(token.getName()).append(' ').append(token.getModifiers()).append(LINE_SEPARATOR);
+        if (!token.isInterface()) {
+            for (Constructor<?> constructor : getConstructors(token)) {
+                appendSignature(signature, constructor, "<init>", void.class);
+            }
+        }
+        for (Method method : getAbstractMethods(token)) {
+            appendSignature(signature, method, method.getName(), method.getReturnType());
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(signature.toString()
+                    .getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ImplerException("SHA-256 is not supported", e);
+        }
+    }
+
+    /**
+     * Append signature of method or constructor to fingerprint
+     */
+    private static void appendSignature(StringBuilder signature, Executable executable, String name,
+                                        Class<?> returnType) {
+        signature.append(executable.getModifiers()).append(' ').append(returnType.getName()).append(' ')
+                .append(name).append('(');
+        for (Parameter parameter : executable.getParameters()) {
+            signature.append(parameter.getType().getName()).append(' ').append(parameter.getName()).append(',');
+        }
+        signature.append(')');
+        for (Class<?> exception : executable.getExceptionTypes()) {
+            signature.append(' ').append(exception.getName());
+        }
+        signature.append('\n');
+    }
+
+    /**
+     * Check, that <var>token</var> can be extended or implemented
+     *
+     * @param token type token to check
+     * @throws ImplerException if <var>token</var> is primitive, array, enum, final or private
+     */
+    protected void checkImplementable(Class<?> token) throws ImplerException {
+        int modifiers = token.getModifiers();
+        if (token.isPrimitive() || token.isArray() || token == Enum.class || Modifier.isFinal(modifiers)
+                || Modifier.isPrivate(modifiers)) {
+            throw new ImplerException("Unable to implement " + token.getCanonicalName());
+        }
+    }
+
+    /**
+     * Get fully qualified name of implementation of <var>token</var>
+     *
+     * @param token implemented class
+     * @return {@link String} binary name of class <var>token</var> name with <var>Impl</var> suffix
+     */
+    protected String getImplName(Class<?> token) {
+        return token.getPackageName().isEmpty() ? getClassName(token)
+                : token.getPackageName() + "." + getClassName(token);
+    }
+
     /**
      * Class for comparing {@link Method}
      */
@@ -396,20 +730,51 @@ public class Implementor implements Impler {
     }
 
 
+    /**
+     * Run implementor from command line: <code>[-threads &lt;n&gt;] &lt;class or .jar&gt;... &lt;root&gt;</code>.
+     * <p>
+     * All public interfaces and abstract classes of given <var>.jar</var> files are implemented.
+     * Classes are implemented in parallel, by number of processors threads by default
+     *
+     * @param args command line arguments
+     */
     public static void main(String[] args) {
         for (String arg : args) {
             if (arg == null) {
                 System.out.println("Arg(s) is null");
+                return;
             }
         }
-        Impler implementor = new Implementor();
+        Implementor implementor = new Implementor();
         try {
-            implementor.implement(Class.forName(args[0]), Paths.get(args[1]));
-        } catch (ClassNotFoundException e) {
-            System.out.println("Couldn't find class: " + e.getMessage());
-        } catch (ImplerException e) {
-            System.out.println("Couldn't implement: " + e.getMessage());
-        } catch (ArrayIndexOutOfBoundsException e) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            int first = 0;
+            if (args.length > 1 && args[0].equals("-threads")) {
+                threads = Integer.parseInt(args[1]);
+                first = 2;
+            }
+            if (args.length - first < 2) {
+                throw new ArrayIndexOutOfBoundsException("Usage: [-threads <n>] <class or .jar>... <root>");
+            }
+            List<Class<?>> tokens = new ArrayList<>();
+            for (int i = first; i < args.length - 1; i++) {
+                if (args[i].endsWith(".jar")) {
+                    tokens.addAll(getImplementableClasses(Paths.get(args[i]), Implementor.class.getClassLoader()));
+                } else {
+                    try {
+                        tokens.add(Class.forName(args[i]));
+                    } catch (ClassNotFoundException e) {
+                        System.out.println("Couldn't find class: " + e.getMessage());
+                    }
+                }
+            }
+            implementor.implement(tokens, Paths.get(args[args.length - 1]), threads)
+                    .forEach((name, e) -> System.out.println("Couldn't implement " + name + ": " + e.getMessage()));
+        } catch (IOException e) {
+            System.out.println("Couldn't read jar: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Interrupted");
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
             System.out.println(e.getMessage());
         }
     }
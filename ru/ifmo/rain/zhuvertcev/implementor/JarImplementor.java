@@ -3,20 +3,64 @@ package ru.ifmo.rain.zhuvertcev.implementor;
 import info.kgeorgiy.java.advanced.implementor.ImplerException;
 import info.kgeorgiy.java.advanced.implementor.JarImpler;
 
-import javax.tools.JavaCompiler;
-import javax.tools.ToolProvider;
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 
 public class JarImplementor extends Implementor implements JarImpler {
+    /**
+     * If <code>true</code> sources and classes are kept in memory, else they are written to temp directory
+     */
+    private final boolean inMemory;
+
+    /**
+     * Create implementor compiling in memory
+     */
+    public JarImplementor() {
+        this(true);
+    }
+
+    /**
+     * Create implementor
+     *
+     * @param inMemory if <code>true</code> compile in memory, else through temp directory near jar file
+     */
+    public JarImplementor(boolean inMemory) {
+        this(inMemory, false);
+    }
+
+    /**
+     * Create implementor
+     *
+     * @param inMemory if <code>true</code> compile in memory, else through temp directory near jar file
+     * @param incremental if <code>true</code> remember fingerprints of classes in jar in index near it
+     *                    and don't rebuild jar, while they are the same
+     */
+    public JarImplementor(boolean inMemory, boolean incremental) {
+        super(incremental);
+        this.inMemory = inMemory;
+    }
 
     /**
      * Delete all content by recursion
@@ -51,50 +95,300 @@ public class JarImplementor extends Implementor implements JarImpler {
     @Override
     public void implementJar(Class<?> token, Path jarFile) throws ImplerException {
         checkNotNulls(token, jarFile);
+        implementJar(List.of(token), jarFile);
+    }
+
+    /**
+     * Produces one <var>.jar</var> file implementing all classes and interfaces specified by <var>tokens</var>.
+     * <p>
+     * All implementations are compiled by one run of compiler
+     *
+     * @param tokens type tokens to create implementations for
+     * @param jarFile target <var>.jar</var> file
+     * @throws ImplerException when some implementation cannot be generated or two implementations have same name
+     */
+    public void implementJar(Collection<Class<?>> tokens, Path jarFile) throws ImplerException {
+        if (tokens == null) {
+            throw new ImplerException("tokens cannot be null");
+        }
+        Set<Class<?>> distinctTokens = new LinkedHashSet<>();
+        for (Class<?> token : tokens) {
+            checkNotNulls(token, jarFile);
+            distinctTokens.add(token);
+        }
+        Map<Class<?>, String> collisions = getCollisions(distinctTokens);
+        if (!collisions.isEmpty()) {
+            throw new ImplerException("Implementations of " + collisions.keySet().stream().map(Class::getName)
+                    .collect(Collectors.joining(", ")) + " have same names");
+        }
         createDirectories(jarFile);
+        if (!isIncremental()) {
+            writeJar(jarFile, compile(distinctTokens, jarFile));
+            return;
+        }
+        Map<String, String> fingerprints = new TreeMap<>();
+        for (Class<?> token : distinctTokens) {
+            fingerprints.put(getImplName(token), getFingerprint(token));
+        }
+        ImplementationCache cache = new ImplementationCache(jarFile.resolveSibling(jarFile.getFileName() + ".cache"));
+        if (Files.exists(jarFile) && cache.isFresh(fingerprints)) {
+            return;
+        }
+        writeJar(jarFile, compile(distinctTokens, jarFile));
+        cache.replace(fingerprints);
+        cache.store();
+    }
+
+    /**
+     * Get bytecode of implementations of <var>tokens</var>
+     *
+     * @param tokens implemented classes
+     * @param jarFile target <var>.jar</var> file
+     * @return {@link Map} from binary names of classes to their bytecode
+     * @throws ImplerException if some implementation can't be generated or compiled
+     */
+    protected Map<String, byte[]> compile(Collection<Class<?>> tokens, Path jarFile) throws ImplerException {
+        return inMemory ? compileInMemory(tokens) : compileOnDisk(tokens, jarFile);
+    }
+
+    /**
+     * Get compiler of running JDK
+     *
+     * @return {@link JavaCompiler}
+     * @throws ImplerException if Java runs without compiler
+     */
+    private static JavaCompiler getCompiler() throws ImplerException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new ImplerException("Couldn't find java compiler");
+        }
+        return compiler;
+    }
+
+    /**
+     * Get options of compiler with class path of <var>tokens</var>
+     *
+     * @param tokens implemented classes
+     * @return {@link List} of options
+     * @throws ImplerException if location of some token can't be converted to path
+     */
+    private static List<String> getCompilerOptions(Collection<Class<?>> tokens) throws ImplerException {
+        Set<String> classPath = new LinkedHashSet<>();
+        for (Class<?> token : tokens) {
+            CodeSource codeSource = token.getProtectionDomain().getCodeSource();
+            // classes of platform have no code source and are visible anyway
+            if (codeSource != null) {
+                try {
+                    classPath.add(Path.of(codeSource.getLocation().toURI()).toString());
+                } catch (URISyntaxException e) {
+                    throw new ImplerException("Can't get Uri", e);
+                }
+            }
+        }
+        return classPath.isEmpty() ? new ArrayList<>()
+                : new ArrayList<>(List.of("-cp", String.join(File.pathSeparator, classPath)));
+    }
+
+    /**
+     * Compile implementations of <var>tokens</var> without touching disk
+     *
+     * @param tokens implemented classes
+     * @return {@link Map} from binary names of compiled classes to their bytecode
+     * @throws ImplerException if some implementation can't be generated or compiled
+     */
+    private Map<String, byte[]> compileInMemory(Collection<Class<?>> tokens) throws ImplerException {
+        JavaCompiler compiler = getCompiler();
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (Class<?> token : tokens) {
+            sources.add(new MemorySource(getImplName(token), generateSource(token)));
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (MemoryFileManager fileManager = new MemoryFileManager(
+                compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8))) {
+            if (!compiler.getTask(null, fileManager, diagnostics, getCompilerOptions(tokens), null,
+                    sources).call()) {
+                throw new ImplerException("Couldn't compile: " + diagnostics.getDiagnostics()
+                        .stream().map(Object::toString).collect(Collectors.joining(System.lineSeparator())));
+            }
+            return fileManager.getClasses();
+        } catch (IOException e) {
+            throw new ImplerException("Couldn't close file manager", e);
+        }
+    }
+
+    /**
+     * Compile implementations of <var>tokens</var> through temp directory near <var>jarFile</var>
+     *
+     * @param tokens implemented classes
+     * @param jarFile target <var>.jar</var> file
+     * @return {@link Map} from binary names of compiled classes to their bytecode
+     * @throws ImplerException if some implementation can't be generated or compiled
+     */
+    private Map<String, byte[]> compileOnDisk(Collection<Class<?>> tokens, Path jarFile) throws ImplerException {
         Path tempDirectory;
         try {
             tempDirectory = Files.createTempDirectory(jarFile.toAbsolutePath().getParent(), "temp");
         } catch (IOException e) {
             throw new ImplerException("Couldn't create temp directory", e);
         }
+        try {
+            List<String> arguments = getCompilerOptions(tokens);
+            for (Class<?> token : tokens) {
+                writeImplementation(token, tempDirectory);
+                arguments.add(getOutputFile(token, tempDirectory, "java").toString());
+            }
+            if (getCompiler().run(null, null, null, arguments.toArray(String[]::new)) != 0) {
+                throw new ImplerException("Couldn't compile files in: " + tempDirectory);
+            }
+            Map<String, byte[]> classes = new TreeMap<>();
+            for (Class<?> token : tokens) {
+                classes.put(getImplName(token), Files.readAllBytes(getOutputFile(token, tempDirectory, "class")));
+            }
+            return classes;
+        } catch (IOException e) {
+            throw new ImplerException("Couldn't read compiled class", e);
+        } finally {
+            clear(tempDirectory);
+        }
+    }
 
+    /**
+     * Write classes to <var>.jar</var> file
+     *
+     * @param jarFile target <var>.jar</var> file
+     * @param classes {@link Map} from binary names of classes to their bytecode
+     * @throws ImplerException if jar can't be written
+     */
+    private static void writeJar(Path jarFile, Map<String, byte[]> classes) throws ImplerException {
         Manifest manifest = new Manifest();
         Attributes attributes = manifest.getMainAttributes();
         attributes.put(Attributes.Name.EXTENSION_NAME, "Fraks");
         attributes.put(Attributes.Name.IMPLEMENTATION_VERSION, "1.0");
         try (JarOutputStream jarWriter = new JarOutputStream(Files.newOutputStream(jarFile), manifest)) {
-            implement(token, tempDirectory);
-            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-            Path outputFile = getOutputFile(token, tempDirectory, "java");
-            if (compiler.run(null, null, null, "-cp",
-                    Path.of(token.getProtectionDomain().getCodeSource().getLocation().toURI()).toString(),
-                    outputFile.toString()) != 0) {
-                throw new ImplerException("Couldn't compile file: " + outputFile);
+            for (Map.Entry<String, byte[]> compiled : classes.entrySet()) {
+                jarWriter.putNextEntry(new ZipEntry(compiled.getKey().replace('.', '/') + ".class"));
+                jarWriter.write(compiled.getValue());
+                jarWriter.closeEntry();
             }
-
-            jarWriter.putNextEntry(new ZipEntry(token.getPackageName().replace('.', '/')
-                    + '/'  + getClassName(token) + ".class"));
-            Path classPath = getOutputFile(token, tempDirectory, "class");
-            Files.copy(classPath, jarWriter);
         } catch (IOException e) {
             throw new ImplerException("IOException in JarOutputSteam: ", e);
-        } catch (URISyntaxException e) {
-            throw new ImplerException("Can't get Uri", e);
-        } finally {
-            clear(tempDirectory);
         }
     }
 
+    /**
+     * Source code kept in memory
+     */
+    private static class MemorySource extends SimpleJavaFileObject {
+        /**
+         * Code of class
+         */
+        private final String code;
+
+        /**
+         * Constructor of class
+         *
+         * @param className binary name of class
+         * @param code source code of class
+         */
+        public MemorySource(String className, String code) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    /**
+     * Bytecode written by compiler to memory
+     */
+    private static class MemoryClass extends SimpleJavaFileObject {
+        /**
+         * Bytecode of class
+         */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /**
+         * Constructor of class
+         *
+         * @param className binary name of class
+         */
+        public MemoryClass(String className) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+    }
+
+    /**
+     * File manager reading classes from standard locations and keeping compiled classes in memory
+     */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        /**
+         * Compiled classes by binary names
+         */
+        private final Map<String, MemoryClass> classes = new TreeMap<>();
+
+        /**
+         * Constructor of class
+         *
+         * @param fileManager manager of standard locations
+         */
+        public MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) throws IOException {
+            if (kind != JavaFileObject.Kind.CLASS) {
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            }
+            MemoryClass compiled = new MemoryClass(className);
+            classes.put(className, compiled);
+            return compiled;
+        }
+
+        /**
+         * Get compiled classes
+         *
+         * @return {@link Map} from binary names of compiled classes to their bytecode, sorted by names
+         */
+        public Map<String, byte[]> getClasses() {
+            Map<String, byte[]> result = new TreeMap<>();
+            classes.forEach((className, compiled) -> result.put(className, compiled.bytes.toByteArray()));
+            return result;
+        }
+    }
+
+    /**
+     * Run implementor from command line: <code>-jar &lt;class&gt;... &lt;jarFile&gt;</code>.
+     * <p>
+     * Several classes are implemented into one jar by one run of compiler
+     *
+     * @param args command line arguments
+     */
     public static void main(String[] args) {
         for (String arg : args) {
             if (arg == null) {
                 System.out.println("Arg(s) is null");
             }
         }
-        JarImpler implementor = new JarImplementor();
+        JarImplementor implementor = new JarImplementor();
         try {
-            implementor.implementJar(Class.forName(args[1]), Paths.get(args[2]));
+            List<Class<?>> tokens = new ArrayList<>();
+            for (int i = 1; i < args.length - 1; i++) {
+                tokens.add(Class.forName(args[i]));
+            }
+            if (tokens.isEmpty()) {
+                throw new ArrayIndexOutOfBoundsException("Usage: -jar <class>... <jarFile>");
+            }
+            implementor.implementJar(tokens, Paths.get(args[args.length - 1]));
         } catch (ClassNotFoundException e) {
             System.out.println("Couldn't find class: " + e.getMessage());
         } catch (ImplerException e) {
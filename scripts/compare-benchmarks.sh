@@ -0,0 +1,24 @@
+#!/bin/bash
+#сравнение двух прогонов run-benchmarks.sh: compare-benchmarks.sh <baseline.csv> <result.csv>
+#для каждого бенчмарка с одинаковыми режимом и параметрами печатает оценки и их отношение
+if [ $# -ne 2 ]; then
+    echo "Usage: compare-benchmarks.sh <baseline.csv> <result.csv>" >&2
+    exit 1
+fi
+
+awk -F ',' '
+    {
+        gsub(/"/, "")
+        #ключ: имя, режим, потоки JMH и параметры (столбцы после единицы измерения)
+        key = $1 " " $2 " " $3
+        for (i = 8; i <= NF; i++) {
+            key = key " " $i
+        }
+    }
+    FNR == 1 { next }
+    NR == FNR { baseline[key] = $5; next }
+    key in baseline {
+        ratio = baseline[key] == 0 ? "-" : sprintf("%.3f", $5 / baseline[key])
+        printf "%-100s %14s -> %14s %-10s x%s\n", key, baseline[key], $5, $7, ratio
+    }
+' "$1" "$2"
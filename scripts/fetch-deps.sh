@@ -0,0 +1,20 @@
+#!/bin/bash
+#загрузка зависимостей закреплённых версий из Maven Central в каталог $deps_dir с проверкой sha1
+#использование: deps_dir=...; source fetch-deps.sh; fetch <group> <artifact> <version> <sha1>
+maven_central=${MAVEN_CENTRAL:-https://repo1.maven.org/maven2}
+
+fetch() {
+    local group=$1 artifact=$2 version=$3 sha1=$4
+    local file=$deps_dir/$artifact-$version.jar
+    if [ ! -f "$file" ]; then
+        mkdir -p "$deps_dir"
+        curl -sfL -o "$file.part" "$maven_central/${group//.//}/$artifact/$version/$artifact-$version.jar" \
+            || { echo "Couldn't download $artifact-$version" >&2; rm -f "$file.part"; return 1; }
+        mv "$file.part" "$file"
+    fi
+    if [ "$(sha1sum "$file" | cut -d ' ' -f 1)" != "$sha1" ]; then
+        echo "Wrong checksum of $file" >&2
+        rm -f "$file"
+        return 1
+    fi
+}
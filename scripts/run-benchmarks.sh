@@ -0,0 +1,34 @@
+#!/bin/bash
+cd ..
+script_dir=$PWD
+cd ../..
+dir=$PWD
+
+java_advanced=$dir/java-advanced-2020
+deps_dir=$script_dir/_deps
+sources_path=$script_dir/ru/ifmo/rain/zhuvertcev/concurrent
+benchmarks_path=$script_dir/benchmarks/ru/ifmo/rain/zhuvertcev/benchmark
+output_dir=$script_dir/_benchmarks
+#результаты прогонов, сохраняются для сравнения скриптом compare-benchmarks.sh
+results_dir=$script_dir/benchmark-results
+result_file=$results_dir/$(date +%Y%m%d-%H%M%S).csv
+
+#JMH закреплённой версии с зависимостями
+source "$script_dir/scripts/fetch-deps.sh"
+fetch org.openjdk.jmh jmh-core 1.23 eb242d3261f3795c8bf09818d17c3241191284a0 || exit 1
+fetch org.openjdk.jmh jmh-generator-annprocess 1.23 4ea76227ce15d5389a25c005b9b23f7390928fd3 || exit 1
+fetch net.sf.jopt-simple jopt-simple 4.6 306816fb57cf94f108a43c95731b08934dcae15c || exit 1
+fetch org.apache.commons commons-math3 3.2 ec2544ab27e110d2d431bdad7d538ed509b21e62 || exit 1
+class_path="$java_advanced/artifacts/*:$java_advanced/lib/*:$deps_dir/*"
+#javac не раскрывает * в -processorpath, поэтому архивы перечислены явно
+processor_path=$deps_dir/jmh-generator-annprocess-1.23.jar:$deps_dir/jmh-core-1.23.jar
+
+#компиляция с генерацией кода бенчмарков в _benchmarks
+rm -rf "$output_dir"
+javac -cp "$class_path" -processorpath "$processor_path" -d "$output_dir" "$sources_path"/*.java "$benchmarks_path"/*.java || exit 1
+
+#запуск, аргументы передаются JMH, например: -p size=1000000 -p threads=4 IterativeParallelismBenchmark.map
+mkdir -p "$results_dir"
+java -cp "$output_dir:$class_path" org.openjdk.jmh.Main -prof gc -rf csv -rff "$result_file" "$@" \
+    | tee "$script_dir/bench_output.txt"
+echo "Results: $result_file"
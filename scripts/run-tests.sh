@@ -0,0 +1,32 @@
+#!/bin/bash
+cd ..
+script_dir=$PWD
+cd ../..
+dir=$PWD
+
+java_advanced=$dir/java-advanced-2020
+deps_dir=$script_dir/_deps
+sources_path=$script_dir/ru/ifmo/rain/zhuvertcev
+tests_path=$script_dir/tests/ru/ifmo/rain/zhuvertcev/test
+output_dir=$script_dir/_tests
+
+#JUnit закреплённой версии
+source "$script_dir/scripts/fetch-deps.sh"
+fetch junit junit 4.13.2 8ac9e16d933b6fb43bc7f576336b8f4d7eb5ba12 || exit 1
+fetch org.hamcrest hamcrest-core 1.3 42a25dc3219429f0e5d060061f71acb49bf010a0 || exit 1
+class_path="$java_advanced/artifacts/*:$java_advanced/lib/*:$deps_dir/*"
+
+#компиляция в _tests
+rm -rf "$output_dir"
+javac -cp "$class_path" -d "$output_dir" "$sources_path"/concurrent/*.java "$sources_path"/implementor/*.java \
+    "$tests_path"/*.java || exit 1
+
+#запуск всех тестов, аргументами можно передать имена отдельных классов
+tests=("$@")
+if [ ${#tests[@]} -eq 0 ]; then
+    for test in "$tests_path"/*Test.java; do
+        tests+=("ru.ifmo.rain.zhuvertcev.test.$(basename "$test" .java)")
+    done
+fi
+java -cp "$output_dir:$class_path" org.junit.runner.JUnitCore "${tests[@]}" | tee "$script_dir/test_output.txt"
+exit "${PIPESTATUS[0]}"
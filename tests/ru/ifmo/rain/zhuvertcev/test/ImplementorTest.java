@@ -0,0 +1,68 @@
+package ru.ifmo.rain.zhuvertcev.test;
+
+import info.kgeorgiy.java.advanced.implementor.ImplerException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.ifmo.rain.zhuvertcev.implementor.Implementor;
+import ru.ifmo.rain.zhuvertcev.implementor.JarImplementor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Tests of {@link Implementor} behaviour, which is not covered by course tests
+ */
+public class ImplementorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Holder of interface, which implementation has same name as of {@link Second.Named}
+     */
+    public static class First {
+        public interface Named {
+            int first();
+        }
+    }
+
+    /**
+     * Holder of interface, which implementation has same name as of {@link First.Named}
+     */
+    public static class Second {
+        public interface Named {
+            String second();
+        }
+    }
+
+    /**
+     * Interface without collisions
+     */
+    public interface Unique {
+        void unique();
+    }
+
+    @Test
+    public void collisionsAreReported() throws IOException, InterruptedException {
+        Path root = folder.newFolder().toPath();
+        Map<String, ImplerException> errors = new Implementor()
+                .implement(List.of(First.Named.class, Second.Named.class, Unique.class), root, 2);
+        Assert.assertEquals(Set.of(First.Named.class.getName(), Second.Named.class.getName()), errors.keySet());
+        try (Stream<Path> files = Files.walk(root)) {
+            // only class without collisions is implemented
+            Assert.assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test(expected = ImplerException.class)
+    public void collisionsFailJar() throws IOException, ImplerException {
+        Path jar = folder.newFolder().toPath().resolve("collisions.jar");
+        new JarImplementor().implementJar(List.of(First.Named.class, Second.Named.class), jar);
+    }
+}
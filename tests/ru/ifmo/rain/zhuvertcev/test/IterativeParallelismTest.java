@@ -0,0 +1,157 @@
+package ru.ifmo.rain.zhuvertcev.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.rain.zhuvertcev.concurrent.IterativeParallelism;
+import ru.ifmo.rain.zhuvertcev.mapper.CancellationToken;
+import ru.ifmo.rain.zhuvertcev.mapper.ParallelMapperImpl;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests of {@link IterativeParallelism} behaviour, which is not covered by course tests
+ */
+public class IterativeParallelismTest {
+    private static final int THREADS = 4;
+    private static final long TIMEOUT_MILLIS = 100;
+    private static final long SLOW_MILLIS = 1500;
+    private static final long DEADLINE_MILLIS = 1000;
+
+    /**
+     * Error thrown by mapping function, distinct from assertion failures of test
+     */
+    private static class SliceError extends Error {
+    }
+
+    private static List<Integer> values(int size) {
+        return IntStream.range(0, size).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * Busy wait, which ignores interrupts, like long computation
+     */
+    private static void spin(long millis) {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static void assertDeadline(IterativeParallelism parallelism) throws InterruptedException {
+        IterativeParallelism limited = parallelism.withTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        try {
+            // slow element at the front gets into first slice
+            limited.map(THREADS, values(1000), x -> {
+                if (x == 0) {
+                    spin(SLOW_MILLIS);
+                }
+                return x;
+            });
+            Assert.fail("Cancellation expected");
+        } catch (CancellationException ignored) {
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Left after " + elapsed + " ms", elapsed < DEADLINE_MILLIS);
+    }
+
+    @Test
+    public void timeoutOwnPool() throws InterruptedException {
+        try (IterativeParallelism parallelism = new IterativeParallelism()) {
+            assertDeadline(parallelism);
+        }
+    }
+
+    @Test
+    public void timeoutMapper() throws InterruptedException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(THREADS)) {
+            assertDeadline(new IterativeParallelism(mapper));
+        }
+    }
+
+    private static void assertErrorRethrown(IterativeParallelism parallelism) throws InterruptedException {
+        for (int failing : new int[]{0, 500, 999}) {
+            try {
+                parallelism.map(THREADS, values(1000), x -> {
+                    if (x == failing) {
+                        throw new SliceError();
+                    }
+                    return x;
+                });
+                Assert.fail("Error of element " + failing + " expected");
+            } catch (SliceError ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void errorOwnPool() throws InterruptedException {
+        try (IterativeParallelism parallelism = new IterativeParallelism()) {
+            assertErrorRethrown(parallelism);
+            assertErrorRethrown(parallelism.withCancellation(new CancellationToken()));
+        }
+    }
+
+    @Test
+    public void errorMapper() throws InterruptedException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(THREADS)) {
+            assertErrorRethrown(new IterativeParallelism(mapper));
+            assertErrorRethrown(new IterativeParallelism(mapper).withCancellation(new CancellationToken()));
+        }
+    }
+
+    @Test
+    public void join() throws InterruptedException {
+        try (IterativeParallelism parallelism = new IterativeParallelism()) {
+            for (int size : new int[]{0, 1, 7, 1000}) {
+                List<Integer> values = values(size);
+                String expected = values.stream().map(Object::toString).collect(Collectors.joining());
+                Assert.assertEquals(expected, parallelism.join(THREADS, values));
+            }
+        }
+    }
+
+    @Test
+    public void resizableResults() throws InterruptedException {
+        try (IterativeParallelism parallelism = new IterativeParallelism()) {
+            List<Integer> mapped = parallelism.map(THREADS, values(100), x -> x * 2);
+            mapped.add(-1);
+            Assert.assertEquals(101, mapped.size());
+            List<Integer> filtered = parallelism.filter(THREADS, values(100), x -> x % 2 == 0);
+            filtered.add(-1);
+            Assert.assertEquals(51, filtered.size());
+        }
+    }
+
+    @Test
+    public void emptyReductions() throws InterruptedException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(THREADS);
+             IterativeParallelism parallelism = new IterativeParallelism()) {
+            for (IterativeParallelism tested : List.of(parallelism, new IterativeParallelism(mapper))) {
+                for (int threads : new int[]{1, THREADS}) {
+                    Assert.assertNull(tested.maximum(threads, List.<Integer>of(), Integer::compare));
+                    Assert.assertNull(tested.minimum(threads, List.<Integer>of(), Integer::compare));
+                    Assert.assertFalse(tested.any(threads, List.<Integer>of(), x -> true));
+                    Assert.assertTrue(tested.all(threads, List.<Integer>of(), x -> false));
+                    Assert.assertEquals("", tested.join(threads, List.of()));
+                    Assert.assertEquals(List.of(), tested.map(threads, List.<Integer>of(), x -> x));
+                    Assert.assertEquals(List.of(), tested.filter(threads, List.<Integer>of(), x -> true));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void singleElementReductions() throws InterruptedException {
+        try (IterativeParallelism parallelism = new IterativeParallelism()) {
+            Assert.assertEquals(Integer.valueOf(5), parallelism.maximum(THREADS, List.of(5), Integer::compare));
+            Assert.assertEquals(Integer.valueOf(5), parallelism.minimum(THREADS, List.of(5), Integer::compare));
+            Assert.assertEquals(Integer.valueOf(999), parallelism.maximum(THREADS, values(1000), Integer::compare));
+            Assert.assertEquals(Integer.valueOf(0), parallelism.minimum(THREADS, values(1000), Integer::compare));
+        }
+    }
+}
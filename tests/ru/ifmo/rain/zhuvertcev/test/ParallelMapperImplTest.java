@@ -0,0 +1,164 @@
+package ru.ifmo.rain.zhuvertcev.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.rain.zhuvertcev.mapper.FailurePolicy;
+import ru.ifmo.rain.zhuvertcev.mapper.ParallelMapperImpl;
+import ru.ifmo.rain.zhuvertcev.mapper.RejectionPolicy;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests of {@link ParallelMapperImpl} settings, which are not covered by course tests
+ */
+public class ParallelMapperImplTest {
+    private static final int THREADS = 4;
+    private static final long KEEP_ALIVE_MILLIS = 200;
+
+    private static List<Integer> values(int size) {
+        return IntStream.range(0, size).boxed().collect(Collectors.toList());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nullThread() {
+        ParallelMapperImpl.builder().threads(THREADS).threadFactory(task -> null).build();
+    }
+
+    @Test
+    public void failedThreadReleasesWorker() throws InterruptedException {
+        AtomicInteger created = new AtomicInteger();
+        ParallelMapperImpl.Builder builder = ParallelMapperImpl.builder().minThreads(0).maxThreads(1)
+                .threadFactory(task -> {
+                    if (created.getAndIncrement() == 0) {
+                        throw new IllegalStateException("No threads left");
+                    }
+                    return new Thread(task);
+                });
+        try (ParallelMapperImpl mapper = builder.build()) {
+            try {
+                mapper.map(Function.identity(), values(10));
+                Assert.fail("Failure of thread factory expected");
+            } catch (IllegalStateException ignored) {
+            }
+            Assert.assertEquals(0, mapper.getPoolSize());
+            // only worker index is free again, so next worker starts
+            Assert.assertEquals(values(10), mapper.map(Function.identity(), values(10)));
+            Assert.assertEquals(1, mapper.getPoolSize());
+        }
+    }
+
+    @Test
+    public void idleTimeOfRetiredWorker() throws InterruptedException {
+        ParallelMapperImpl.Builder builder = ParallelMapperImpl.builder().minThreads(0).maxThreads(1)
+                .keepAlive(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS).metrics(true);
+        try (ParallelMapperImpl mapper = builder.build()) {
+            mapper.map(Function.identity(), values(10));
+            Thread.sleep(4 * KEEP_ALIVE_MILLIS);
+            Assert.assertEquals(0, mapper.getPoolSize());
+            // wait ended by keep-alive timeout is idle time too
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(mapper.metrics().getWorkerIdleNanos()[0]);
+            Assert.assertTrue("Idle for " + idleMillis + " ms", idleMillis >= KEEP_ALIVE_MILLIS);
+        }
+    }
+
+    /**
+     * Occupy the only worker of <var>mapper</var> and fill its queue of one task
+     *
+     * @return action releasing worker and waiting for both tasks
+     */
+    private static Runnable fillQueue(ParallelMapperImpl mapper) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<Integer>> running = mapper.mapAsync(x -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return x;
+        }, List.of(0), 1);
+        started.await();
+        CompletableFuture<List<Integer>> queued = mapper.mapAsync(Function.identity(), List.of(1), 1);
+        return () -> {
+            release.countDown();
+            Assert.assertEquals(List.of(0), running.join());
+            Assert.assertEquals(List.of(1), queued.join());
+        };
+    }
+
+    private static ParallelMapperImpl boundedMapper(RejectionPolicy rejectionPolicy) {
+        return ParallelMapperImpl.builder().threads(1).queueCapacity(1).rejectionPolicy(rejectionPolicy).build();
+    }
+
+    @Test
+    public void abortWhenQueueIsFull() throws InterruptedException {
+        try (ParallelMapperImpl mapper = boundedMapper(RejectionPolicy.ABORT)) {
+            Runnable release = fillQueue(mapper);
+            try {
+                mapper.map(Function.identity(), List.of(2), 1);
+                Assert.fail("Rejection expected");
+            } catch (RejectedExecutionException ignored) {
+            }
+            release.run();
+            Assert.assertEquals(values(10), mapper.map(Function.identity(), values(10), 10));
+        }
+    }
+
+    @Test
+    public void callerRunsWhenQueueIsFull() throws InterruptedException {
+        try (ParallelMapperImpl mapper = boundedMapper(RejectionPolicy.CALLER_RUNS)) {
+            Runnable release = fillQueue(mapper);
+            Thread caller = Thread.currentThread();
+            Assert.assertEquals(List.of(caller), mapper.map(x -> Thread.currentThread(), List.of(2), 1));
+            release.run();
+            Assert.assertEquals(values(10), mapper.map(Function.identity(), values(10), 10));
+        }
+    }
+
+    private static Function<Integer, Integer> failing(AtomicInteger applied, Set<Integer> failing) {
+        return x -> {
+            applied.incrementAndGet();
+            if (failing.contains(x)) {
+                throw new IllegalArgumentException("Element " + x);
+            }
+            return x;
+        };
+    }
+
+    @Test
+    public void failFast() throws InterruptedException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(1)) {
+            AtomicInteger applied = new AtomicInteger();
+            try {
+                mapper.map(failing(applied, Set.of(0)), values(100), FailurePolicy.FAIL_FAST);
+                Assert.fail("Exception expected");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Element 0", e.getMessage());
+            }
+            Assert.assertTrue("Applied to " + applied.get() + " elements", applied.get() < 100);
+        }
+    }
+
+    @Test
+    public void collectAll() throws InterruptedException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(THREADS)) {
+            AtomicInteger applied = new AtomicInteger();
+            try {
+                mapper.map(failing(applied, Set.of(0, 50, 99)), values(100), FailurePolicy.COLLECT_ALL);
+                Assert.fail("Exception expected");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals(2, e.getSuppressed().length);
+            }
+            Assert.assertEquals(100, applied.get());
+        }
+    }
+}